@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The cost of a trace statement like the one in
+ * {@link RoomImplementation#handleMessage}: when its level is disabled
+ * (which should be next to nothing, and allocate nothing), and when it is
+ * enabled, compared with formatting the prefix for every message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogWriterBenchmark {
+
+    static final String LEGACY_FORMAT = ": %-8x : %s";
+
+    // Loggers are only weakly referenced by the log manager
+    Logger disabledLogger;
+    Logger enabledLogger;
+
+    LogWriter disabled;
+    LogWriter enabled;
+
+    String username = "Bob";
+    String userId = "dummy.Bob";
+    String message = "room,TheRoom,{\"username\":\"Bob\",\"userId\":\"dummy.Bob\",\"content\":\"/look\"}";
+
+    @Setup
+    public void setup(Blackhole bh) {
+        disabledLogger = Logger.getLogger("bench.disabled");
+        disabledLogger.setUseParentHandlers(false);
+        disabledLogger.setLevel(Level.INFO);
+        disabled = new LogWriter("bench.disabled");
+
+        enabledLogger = Logger.getLogger("bench.enabled");
+        enabledLogger.setUseParentHandlers(false);
+        enabledLogger.setLevel(Level.ALL);
+        enabledLogger.addHandler(new FormattingHandler(bh));
+        enabled = new LogWriter("bench.enabled");
+    }
+
+    @Benchmark
+    public void disabledWithArgs() {
+        disabled.log(Level.FINEST, this, "Received message from {0}({1}): {2}", username, userId, message);
+    }
+
+    @Benchmark
+    public void disabledWithSupplier() {
+        disabled.log(Level.FINEST, this, () -> "Received message from " + username + "(" + userId + "): " + message);
+    }
+
+    @Benchmark
+    public void enabledWithArgs() {
+        enabled.log(Level.FINEST, this, "Received message from {0}({1}): {2}", username, userId, message);
+    }
+
+    @Benchmark
+    public void enabledWithSupplier() {
+        enabled.log(Level.FINEST, this, () -> "Received message from " + username + "(" + userId + "): " + message);
+    }
+
+    @Benchmark
+    public String prefix() {
+        return LogWriter.prefix(this).concat("Received message from {0}({1}): {2}");
+    }
+
+    @Benchmark
+    public String legacyPrefix() {
+        return String.format(LEGACY_FORMAT, Log.getHash(this), "Received message from {0}({1}): {2}");
+    }
+
+    /**
+     * Formats each record (like a real handler would), and throws it away
+     */
+    static class FormattingHandler extends Handler {
+        final SimpleFormatter formatter = new SimpleFormatter();
+        final Blackhole bh;
+
+        FormattingHandler(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            bh.consume(formatter.formatMessage(record));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The parts of the room description that go into every location message,
+ * both when they are unchanged (cached) and right after the room changed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomDescriptionBenchmark {
+
+    RoomDescription roomDescription;
+
+    @Setup
+    public void setup() {
+        roomDescription = new RoomDescription();
+        roomDescription.addCommand("/weatherLike", "What's the weather like at <zipcode>");
+        roomDescription.addCommand("/forecast", "What's the weather going to be like at <zipcode>");
+        roomDescription.addItem("barometer");
+        roomDescription.addItem("weather vane");
+        roomDescription.addItem("globe");
+    }
+
+    @Benchmark
+    public JsonObject getCommands() {
+        return roomDescription.getCommands();
+    }
+
+    @Benchmark
+    public JsonArray getInventory() {
+        return roomDescription.getInventory();
+    }
+
+    @Benchmark
+    public String getLocationPayload() {
+        return roomDescription.getLocationPayload();
+    }
+
+    @Benchmark
+    public JsonObject getCommandsAfterChange() {
+        roomDescription.addCommand("/temporary", "Gone again in a moment");
+        roomDescription.removeCommand("/temporary");
+        return roomDescription.getCommands();
+    }
+
+    @Benchmark
+    public String getLocationPayloadAfterChange() {
+        roomDescription.addItem("umbrella");
+        roomDescription.removeItem("umbrella");
+        return roomDescription.getLocationPayload();
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.Session;
+
+import org.gameontext.sample.protocol.Message;
+import org.gameontext.sample.protocol.RoomEndpoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link RoomImplementation#handleMessage(Session, Message, RoomEndpoint)} from
+ * a decoded frame to the replies handed to the endpoint. The endpoint is a
+ * stub that encodes each reply (as the real one would, once) and hands it to
+ * the blackhole instead of writing it to a session.
+ * <p>
+ * Messages are decoded per operation so that lazily read fields are not
+ * already cached. {@code /weatherLike <zip>} is left out: it calls out to
+ * the weather service.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomDispatchBenchmark {
+
+    static final String ROOM_ID = "TheGeneratedIdForThisRoom";
+    static final String USER_ID = "dummy.DevUser";
+    static final String USERNAME = "DevUser";
+
+    RoomImplementation room;
+    StubEndpoint endpoint;
+
+    String helloFrame;
+    String chatFrame;
+    String lookFrame;
+    String goFrame;
+    String unknownFrame;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        room = new RoomImplementation();
+        room.postConstruct();
+        endpoint = new StubEndpoint(blackhole);
+
+        helloFrame = Message.createRoomHello(ROOM_ID, USER_ID, USERNAME, 2).encode();
+        chatFrame = Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "Hello, is anybody out there?").encode();
+        lookFrame = Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "/look").encode();
+        goFrame = Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "/go N").encode();
+        unknownFrame = Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "/dance wildly").encode();
+    }
+
+    @Benchmark
+    public void roomHello() throws Exception {
+        room.handleMessage(null, new Message(helloFrame), endpoint);
+    }
+
+    @Benchmark
+    public void chat() throws Exception {
+        room.handleMessage(null, new Message(chatFrame), endpoint);
+    }
+
+    @Benchmark
+    public void look() throws Exception {
+        room.handleMessage(null, new Message(lookFrame), endpoint);
+    }
+
+    @Benchmark
+    public void go() throws Exception {
+        room.handleMessage(null, new Message(goFrame), endpoint);
+    }
+
+    @Benchmark
+    public void unknownCommand() throws Exception {
+        room.handleMessage(null, new Message(unknownFrame), endpoint);
+    }
+
+    /**
+     * Encodes replies instead of sending them
+     */
+    static class StubEndpoint extends RoomEndpoint {
+        private final Blackhole blackhole;
+
+        StubEndpoint(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void sendMessage(Session session, Message message) {
+            blackhole.consume(message.encode());
+        }
+    }
+}
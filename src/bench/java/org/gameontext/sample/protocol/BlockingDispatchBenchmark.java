@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.gameontext.sample.RoomExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Players whose commands block on a slow upstream service (like
+ * {@code /weatherLike}), dispatched through their mailboxes on each kind of
+ * {@link RoomExecutor}.
+ * <p>
+ * Each operation is one player's command: {@link #PLAYERS} players each send
+ * one, and every command sleeps for {@code latency} milliseconds. The score is
+ * commands per second, so the concurrency achieved is the score multiplied by
+ * the latency (in seconds).
+ * </p>
+ * <ul>
+ * <li>{@code liberty}: 5 platform threads, like Liberty's executor with {@code coreThreads="5"}</li>
+ * <li>{@code platform}: {@link RoomExecutor#newPlatformExecutor(int)} with the default maximum</li>
+ * <li>{@code virtual}: {@link RoomExecutor#newVirtualThreadExecutor()}; needs Java 21</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockingDispatchBenchmark {
+
+    static final int PLAYERS = 1000;
+
+    @Param({"liberty", "platform", "virtual"})
+    String executor;
+
+    /** Milliseconds each command blocks */
+    @Param({"20"})
+    long latency;
+
+    ExecutorService pool;
+    PlayerMailboxes mailboxes;
+    String[] userIds;
+
+    @Setup
+    public void setup() {
+        switch (executor) {
+            case "liberty":
+                pool = Executors.newFixedThreadPool(5);
+                break;
+            case "platform":
+                pool = RoomExecutor.newPlatformExecutor(64);
+                break;
+            case "virtual":
+            default:
+                pool = RoomExecutor.newVirtualThreadExecutor();
+                if ( pool == null ) {
+                    throw new IllegalStateException("Virtual threads need Java 21 or later");
+                }
+                break;
+        }
+        mailboxes = new PlayerMailboxes(pool);
+
+        userIds = new String[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            userIds[i] = "player" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PLAYERS)
+    public void blockingCommands() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(PLAYERS);
+        for (String userId : userIds) {
+            mailboxes.submit(userId, () -> {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
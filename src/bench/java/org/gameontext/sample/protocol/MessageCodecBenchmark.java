@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonObject;
+import javax.websocket.DecodeException;
+
+import org.gameontext.sample.RoomDescription;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding and encoding of the frames the room sends and receives.
+ * <p>
+ * Messages memoize their parsed body and their encoded form, so each
+ * benchmark that measures one of those works on a freshly decoded or
+ * freshly created message. Run with {@code -prof gc} to see allocation
+ * per operation.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    static final String ROOM_ID = "TheGeneratedIdForThisRoom";
+    static final String USER_ID = "dummy.DevUser";
+    static final String USERNAME = "DevUser";
+
+    String helloFrame;
+    String chatFrame;
+    String commandFrame;
+    byte[] chatBinary;
+    byte[] commandBinary;
+    RoomDescription roomDescription;
+    JsonObject chatBody;
+    JsonObject locationBody;
+
+    @Setup
+    public void setup() {
+        helloFrame = Message.createRoomHello(ROOM_ID, USER_ID, USERNAME, 2).encode();
+        chatFrame = Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "Hello, is anybody out there?").encode();
+        commandFrame = Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "/weatherLike 90210").encode();
+        chatBinary = Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "Hello, is anybody out there?").encodeBinary();
+        commandBinary = Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "/weatherLike 90210").encodeBinary();
+
+        roomDescription = new RoomDescription();
+        roomDescription.addCommand("/weatherLike", "What's the weather like at <zipcode>");
+        roomDescription.addItem("barometer");
+        roomDescription.addItem("weather vane");
+
+        chatBody = Message.createChatMessage(USERNAME, "Hello, is anybody out there?").getParsedBody();
+        locationBody = roomDescription.getLocation().getBody();
+    }
+
+    // --- decode
+
+    @Benchmark
+    public Message decodeHello() throws DecodeException {
+        return new Message(helloFrame);
+    }
+
+    @Benchmark
+    public Message decodeChat() throws DecodeException {
+        return new Message(chatFrame);
+    }
+
+    @Benchmark
+    public String decodeSenderFields() throws DecodeException {
+        // What RoomImplementation.handleMessage reads from every frame
+        Message m = new Message(commandFrame);
+        m.getUserId();
+        m.getUsername();
+        return m.getContent();
+    }
+
+    @Benchmark
+    public Message decodeBinaryChat() throws DecodeException {
+        return BinaryFrame.decode(ByteBuffer.wrap(chatBinary));
+    }
+
+    @Benchmark
+    public String decodeBinarySenderFields() throws DecodeException {
+        Message m = BinaryFrame.decode(ByteBuffer.wrap(commandBinary));
+        m.getUserId();
+        m.getUsername();
+        return m.getContent();
+    }
+
+    @Benchmark
+    public JsonObject decodeParsedBody() throws DecodeException {
+        return new Message(chatFrame).getParsedBody();
+    }
+
+    // --- encode
+
+    @Benchmark
+    public String encodeChat() {
+        return Message.createChatMessage(USERNAME, "Hello, is anybody out there?").encode();
+    }
+
+    @Benchmark
+    public String encodeLocation() {
+        return Message.createLocationMessage(USER_ID, roomDescription).encode();
+    }
+
+    @Benchmark
+    public byte[] encodeBinaryChat() {
+        return Message.createChatMessage(USERNAME, "Hello, is anybody out there?").encodeBinary();
+    }
+
+    @Benchmark
+    public byte[] encodeBinaryLocation() {
+        return Message.createLocationMessage(USER_ID, roomDescription).encodeBinary();
+    }
+
+    // --- text vs binary: the same body, as the room has just built it
+
+    @Benchmark
+    public String encodeTextFromChatBody() {
+        return new Message(Message.Target.player, "*", chatBody).encode();
+    }
+
+    @Benchmark
+    public byte[] encodeBinaryFromChatBody() {
+        return new Message(Message.Target.player, "*", chatBody).encodeBinary();
+    }
+
+    @Benchmark
+    public String encodeTextFromLocationBody() {
+        return new Message(Message.Target.player, USER_ID, locationBody).encode();
+    }
+
+    @Benchmark
+    public byte[] encodeBinaryFromLocationBody() {
+        return new Message(Message.Target.player, USER_ID, locationBody).encodeBinary();
+    }
+
+    // --- factories
+
+    @Benchmark
+    public Message createSpecificEvent() {
+        return Message.createSpecificEvent(USER_ID, "It doesn't look interesting");
+    }
+
+    @Benchmark
+    public Message createBroadcastEvent() {
+        return Message.createBroadcastEvent("DevUser is here", USER_ID, "Welcome!");
+    }
+
+    @Benchmark
+    public Message createChatMessage() {
+        return Message.createChatMessage(USERNAME, "Hello, is anybody out there?");
+    }
+
+    @Benchmark
+    public Message createLocationMessage() {
+        return Message.createLocationMessage(USER_ID, roomDescription);
+    }
+
+    @Benchmark
+    public Message createExitMessage() {
+        return Message.createExitMessage(USER_ID, "N", "You head North");
+    }
+
+    @Benchmark
+    public Message createRoomMessage() {
+        return Message.createRoomMessage(ROOM_ID, USER_ID, USERNAME, "Hello, is anybody out there?");
+    }
+
+    @Benchmark
+    public Message createRoomHello() {
+        return Message.createRoomHello(ROOM_ID, USER_ID, USERNAME, 2);
+    }
+
+    @Benchmark
+    public Message createRoomGoodbye() {
+        return Message.createRoomGoodbye(ROOM_ID, USER_ID, USERNAME);
+    }
+
+    @Benchmark
+    public Message createRoomJoin() {
+        return Message.createRoomJoin(ROOM_ID, USER_ID, USERNAME, 2);
+    }
+
+    @Benchmark
+    public Message createRoomPart() {
+        return Message.createRoomPart(ROOM_ID, USER_ID, USERNAME);
+    }
+}
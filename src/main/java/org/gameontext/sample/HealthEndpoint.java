@@ -15,17 +15,82 @@
  *******************************************************************************/
 package org.gameontext.sample;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import org.gameontext.sample.map.client.MapClient;
+import org.gameontext.sample.metrics.Metrics;
+import org.gameontext.sample.protocol.OutboundStats;
+import org.gameontext.sample.protocol.PlayerMailboxes;
+import org.gameontext.sample.weather.CircuitBreaker;
+import org.gameontext.sample.weather.WeatherClient;
+
+/**
+ * Health checks for the orchestrator.
+ * <p>
+ * {@code /health/live} says whether the room is running at all: if it fails,
+ * restart the room. {@code /health/ready} says whether the room can take
+ * more players: it fails while the room is overloaded (work is backing up
+ * on the executor or in the inbound or outbound queues, or recent messages
+ * have been slow to handle), so players can be routed elsewhere until it
+ * catches up. Both answer with JSON detail for each check.
+ * </p>
+ * <p>
+ * Upstream services are reported, but don't make the room unready: an open
+ * weather breaker or stale map data affects every instance of the room
+ * alike, and the room still works without them.
+ * </p>
+ */
 @Path("/health")
 public class HealthEndpoint {
 
+    static final String UP = "UP";
+    static final String DOWN = "DOWN";
+    static final String DEGRADED = "DEGRADED";
+
+    /** Not ready once the platform pool's queue is this full */
+    static final double MAX_SATURATION = 0.9;
+
+    /** Not ready with this many inbound messages waiting, across all players */
+    static final int MAX_INBOUND_BACKLOG = 1000;
+
+    /** Players whose mailboxes are reported one by one (the deepest ones) */
+    static final int DEEPEST_MAILBOXES = 5;
+
+    /** Not ready with this many outbound frames waiting, across all sessions */
+    static final long MAX_OUTBOUND_BACKLOG = 4096;
+
+    /** Not ready if the 99th percentile of recent handleMessage calls is slower than this */
+    static final long MAX_P99 = TimeUnit.SECONDS.toNanos(2);
+
+    /** Map data is stale once it misses this many refreshes */
+    static final int STALE_REFRESHES = 3;
+
     @Inject
-    private RoomImplementation roomImplementation;
+    protected RoomImplementation roomImplementation;
+
+    @Inject
+    protected RoomExecutor executor;
+
+    @Inject
+    protected PlayerMailboxes mailboxes;
+
+    @Inject
+    protected WeatherClient weatherClient;
+
+    @Inject
+    protected MapClient mapClient;
 
     @GET
     public Response health() {
@@ -34,4 +99,110 @@ public class HealthEndpoint {
         }
         return Response.status(Status.SERVICE_UNAVAILABLE).build();
     }
+
+    @GET
+    @Path("live")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response live() {
+        boolean up = roomImplementation != null && roomImplementation.ok();
+        JsonObject body = Json.createObjectBuilder()
+                .add("status", up ? UP : DOWN)
+                .build();
+        return Response.status(up ? Status.OK : Status.SERVICE_UNAVAILABLE).entity(body.toString()).build();
+    }
+
+    @GET
+    @Path("ready")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response ready() {
+        JsonObject body = readiness();
+        boolean up = UP.equals(body.getString("status"));
+        return Response.status(up ? Status.OK : Status.SERVICE_UNAVAILABLE).entity(body.toString()).build();
+    }
+
+    JsonObject readiness() {
+        boolean ready = roomImplementation != null && roomImplementation.ok();
+        JsonObjectBuilder checks = Json.createObjectBuilder();
+
+        // Blocking work: inbound messages and weather lookups
+        JsonObjectBuilder work = Json.createObjectBuilder();
+        boolean workUp = true;
+        if ( executor != null ) {
+            work.add("mode", executor.getMode().name());
+            double saturation = executor.getSaturation();
+            if ( saturation >= 0 ) {
+                work.add("queued", executor.getQueued());
+                work.add("saturation", saturation);
+                workUp = saturation < MAX_SATURATION;
+            }
+        }
+        if ( mailboxes != null ) {
+            int inbound = 0;
+            for (PlayerMailboxes.Stats s : mailboxes.getStats()) {
+                inbound += s.getDepth();
+            }
+            work.add("inboundQueued", inbound);
+            JsonArrayBuilder deepest = Json.createArrayBuilder();
+            for (PlayerMailboxes.Stats s : mailboxes.getDeepest(DEEPEST_MAILBOXES)) {
+                deepest.add(Json.createObjectBuilder()
+                        .add("userId", s.getUserId())
+                        .add("depth", s.getDepth())
+                        .add("maxDepth", s.getMaxDepth())
+                        .add("processed", s.getProcessed())
+                        .add("averageMillis", s.getAverageMillis())
+                        .add("maxMillis", s.getMaxMillis()));
+            }
+            work.add("deepestMailboxes", deepest);
+            workUp &= inbound < MAX_INBOUND_BACKLOG;
+        }
+        ready &= workUp;
+        checks.add("executor", work.add("status", workUp ? UP : DOWN));
+
+        long outbound = OutboundStats.getQueued();
+        boolean outboundUp = outbound < MAX_OUTBOUND_BACKLOG;
+        ready &= outboundUp;
+        checks.add("outbound", Json.createObjectBuilder()
+                .add("status", outboundUp ? UP : DOWN)
+                .add("queued", outbound)
+                .add("deepest", OutboundStats.getDeepest())
+                .add("evicted", OutboundStats.getEvicted()));
+
+        long p99 = Metrics.recentHandleLatency.getPercentile(99);
+        boolean latencyUp = p99 < MAX_P99;
+        ready &= latencyUp;
+        checks.add("latency", Json.createObjectBuilder()
+                .add("status", latencyUp ? UP : DOWN)
+                .add("samples", Metrics.recentHandleLatency.getCount())
+                .add("p99Millis", p99 < 0 ? 0 : p99 / 1e6));
+
+        if ( weatherClient != null ) {
+            CircuitBreaker breaker = weatherClient.getBreaker();
+            CircuitBreaker.State state = breaker.getState();
+            JsonObjectBuilder weather = Json.createObjectBuilder()
+                    .add("status", state == CircuitBreaker.State.closed ? UP : DEGRADED)
+                    .add("breaker", state.name());
+            if ( state == CircuitBreaker.State.open ) {
+                weather.add("retryAfterMillis", breaker.getRetryAfter());
+            }
+            checks.add("weather", weather);
+        }
+
+        if ( mapClient != null && mapClient.isUpdating() ) {
+            long lastRefresh = mapClient.getLastRefresh();
+            long staleAfter = TimeUnit.SECONDS.toMillis(mapClient.getRefreshInterval() * STALE_REFRESHES);
+            JsonObjectBuilder map = Json.createObjectBuilder();
+            if ( lastRefresh == 0 ) {
+                map.add("status", DEGRADED).add("refreshed", false);
+            } else {
+                long age = System.currentTimeMillis() - lastRefresh;
+                map.add("status", age < staleAfter ? UP : DEGRADED).add("ageSeconds", age / 1000);
+            }
+            checks.add("map", map);
+        }
+
+        return Json.createObjectBuilder()
+                .add("status", ready ? UP : DOWN)
+                .add("checks", checks)
+                .build();
+    }
 }
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * Pulls a few values out of a JSON document without building the whole
+ * document in memory.
+ * <p>
+ * Fields are named by their path from the top of the document, with dots
+ * between the keys: {@code observation.temp}. Only string, number, boolean
+ * and null values can be extracted (not objects or arrays), and values
+ * inside arrays are skipped. Parsing stops as soon as every field has been
+ * found, so whatever follows in the document is never read.
+ * </p>
+ * <p>
+ * An extractor is immutable and can be shared: create one per kind of
+ * document, and call {@link #extract(InputStream)} for each response.
+ * </p>
+ */
+public class JsonFieldExtractor {
+
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+    private final String[] paths;
+    private final String[][] keys;
+    private final int maxDepth;
+
+    /**
+     * @param paths Fields to extract, e.g. {@code observation.temp}
+     */
+    public JsonFieldExtractor(String... paths) {
+        this.paths = paths.clone();
+        this.keys = new String[paths.length][];
+        int max = 0;
+        for (int i = 0; i < paths.length; i++) {
+            keys[i] = paths[i].split("\\.");
+            max = Math.max(max, keys[i].length);
+        }
+        this.maxDepth = max;
+    }
+
+    /**
+     * Read fields from a stream. The stream is left open, positioned
+     * somewhere after the last field found.
+     * @param in JSON document (the encoding is detected)
+     * @return extracted fields
+     * @throws JsonException if the document is not well formed up to the last field
+     */
+    public Fields extract(InputStream in) {
+        return extract(PARSER_FACTORY.createParser(in));
+    }
+
+    /**
+     * Read fields from a reader. The reader is left open, positioned
+     * somewhere after the last field found.
+     * @param reader JSON document
+     * @return extracted fields
+     * @throws JsonException if the document is not well formed up to the last field
+     */
+    public Fields extract(Reader reader) {
+        return extract(PARSER_FACTORY.createParser(reader));
+    }
+
+    /**
+     * @param parser Parser positioned before the start of the document
+     * @return extracted fields
+     */
+    public Fields extract(JsonParser parser) {
+        String[] values = new String[paths.length];
+        int remaining = paths.length;
+
+        // Keys leading to the current position; only as deep as the longest path
+        String[] stack = new String[maxDepth];
+        int depth = 0;
+        String key = null;
+
+        while ( remaining > 0 && parser.hasNext() ) {
+            JsonParser.Event event = parser.next();
+            switch (event) {
+                case KEY_NAME:
+                    key = parser.getString();
+                    break;
+                case START_OBJECT:
+                case START_ARRAY:
+                    if ( depth > 0 && depth <= maxDepth ) {
+                        // Arrays (and objects in arrays) don't have a key
+                        stack[depth - 1] = key;
+                    }
+                    depth++;
+                    key = null;
+                    if ( event == JsonParser.Event.START_ARRAY ) {
+                        // Nothing in an array can be matched
+                        skip(parser);
+                        depth--;
+                    }
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    key = null;
+                    break;
+                case VALUE_STRING:
+                case VALUE_NUMBER:
+                case VALUE_TRUE:
+                case VALUE_FALSE:
+                case VALUE_NULL:
+                    if ( key != null && depth <= maxDepth ) {
+                        int i = match(stack, depth, key);
+                        if ( i >= 0 && values[i] == null ) {
+                            values[i] = text(parser, event);
+                            remaining--;
+                        }
+                    }
+                    key = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new Fields(values);
+    }
+
+    /**
+     * @return index of the path at depth with the given last key, or -1
+     */
+    private int match(String[] stack, int depth, String key) {
+        for (int i = 0; i < keys.length; i++) {
+            String[] k = keys[i];
+            if ( k.length == depth && k[depth - 1].equals(key) ) {
+                boolean same = true;
+                for (int d = 0; d < depth - 1 && same; d++) {
+                    same = k[d].equals(stack[d]);
+                }
+                if ( same ) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip to the end of the array or object just started
+     */
+    private static void skip(JsonParser parser) {
+        int nested = 1;
+        while ( nested > 0 && parser.hasNext() ) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    nested++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    nested--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static String text(JsonParser parser, JsonParser.Event event) {
+        switch (event) {
+            case VALUE_TRUE:
+                return "true";
+            case VALUE_FALSE:
+                return "false";
+            case VALUE_NULL:
+                return NULL;
+            default:
+                return parser.getString();
+        }
+    }
+
+    /** Marks a field that was present, with a null value */
+    private static final String NULL = new String("null");
+
+    @Override
+    public String toString() {
+        return "JsonFieldExtractor" + Arrays.toString(paths);
+    }
+
+    /**
+     * Values found by an extractor, by path
+     */
+    public class Fields {
+        private final String[] values;
+
+        Fields(String[] values) {
+            this.values = values;
+        }
+
+        private int index(String path) {
+            for (int i = 0; i < paths.length; i++) {
+                if ( paths[i].equals(path) ) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Not extracted: " + path);
+        }
+
+        /**
+         * @return true if every field was found (even if some were null)
+         */
+        public boolean isComplete() {
+            for (String v : values) {
+                if ( v == null ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the paths that were not found
+         */
+        public String getMissing() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                if ( values[i] == null ) {
+                    sb.append(sb.length() == 0 ? "" : ", ").append(paths[i]);
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @param path Field path
+         * @return the value as text (numbers as written), or null if the
+         *      field was missing or null
+         */
+        public String getString(String path) {
+            String v = values[index(path)];
+            return v == NULL ? null : v;
+        }
+
+        /**
+         * @param path Field path
+         * @param defaultValue Returned if the field was missing or null
+         * @return the value as an int (decimals are truncated)
+         * @throws NumberFormatException if the value isn't a number
+         */
+        public int getInt(String path, int defaultValue) {
+            String v = getString(path);
+            if ( v == null ) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(v);
+            } catch (NumberFormatException e) {
+                return new BigDecimal(v).intValue();
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < values.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(paths[i]).append('=').append(values[i]);
+            }
+            return sb.append('}').toString();
+        }
+    }
+}
@@ -15,54 +15,65 @@
  *******************************************************************************/
 package org.gameontext.sample;
 
+import java.util.function.Supplier;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * Wrapper to provide a single logger with a consistent format that helps
  * identify different endpoints in the messages
  *
+ * @see LogWriter
  */
 public class Log {
-    private final static Logger log = Logger.getLogger("org.gameontext.sample");
-
-    private static final String log_format = ": %-8x : %s";
-    private static final boolean NO_LOG_LEVEL_PROMOTION = Boolean.valueOf(System.getenv("NO_LOG_LEVEL_PROMOTION"));
+    private final static LogWriter log = new LogWriter("org.gameontext.sample");
 
     public static void log(Level level, Object source, String message, Object... args) {
-        if (log.isLoggable(level)) {
-            String msg = String.format(log_format, getHash(source), message);
-            log.log(useLevel(level), msg, args);
-        }
+        log.log(level, source, message, args);
     }
 
     public static void log(Level level, Object source, String message, Throwable thrown) {
-        if (log.isLoggable(level)) {
-            String msg = String.format(log_format, getHash(source), message);
-            log.log(useLevel(level), msg, thrown);
-        }
+        log.log(level, source, message, thrown);
     }
 
-    public static String getHexHash(Object source) {
-        return Integer.toHexString(getHash(source));
+    /**
+     * @param level Level
+     * @param source Object logging the message
+     * @param message Builds the message, only called if the level is enabled
+     */
+    public static void log(Level level, Object source, Supplier<String> message) {
+        log.log(level, source, message);
     }
 
-    public static int getHash(Object source) {
-        return source == null ? 0 : System.identityHashCode(source);
+    /**
+     * @param level Level
+     * @param source Object logging the message
+     * @param sampler Sampler for the call site: see {@link LogSampler}
+     * @param message Builds the message, only called if it will be written
+     */
+    public static void log(Level level, Object source, LogSampler sampler, Supplier<String> message) {
+        log.log(level, source, sampler, message);
     }
 
     /**
-     * This bumps enabled trace up to INFO level, so it appears in messages.log
-     * @param level Original level
-     * @return Original Level or INFO level, whichever is greater
+     * @param level Level
+     * @param source Object logging the message
+     * @param sampler Sampler for the call site: see {@link LogSampler}
+     * @param message Message, with parameters
+     * @param args Parameters
      */
-    private static Level useLevel(Level level) {
-        // The "not not" here isn't great, but it makes the environment variable
-        // much easier to read if the default behaviour is to have this level
-        // promotion switched on
-        if ( !NO_LOG_LEVEL_PROMOTION && level.intValue() < Level.INFO.intValue() ) {
-            return Level.INFO;
-        }
-        return level;
+    public static void log(Level level, Object source, LogSampler sampler, String message, Object... args) {
+        log.log(level, source, sampler, message, args);
+    }
+
+    public static boolean isLoggable(Level level) {
+        return log.isLoggable(level);
+    }
+
+    public static String getHexHash(Object source) {
+        return Integer.toHexString(getHash(source));
+    }
+
+    public static int getHash(Object source) {
+        return source == null ? 0 : System.identityHashCode(source);
     }
 }
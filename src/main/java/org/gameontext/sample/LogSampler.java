@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Decides which messages from a busy call site are written.
+ * <p>
+ * A sampler keeps 1 in N messages, and then at most K per second (with
+ * bursts of up to K). The rate limit is a token bucket, kept as the time at
+ * which the bucket will next be full (GCRA), so each decision is a single
+ * compare-and-set. Messages that are not written are counted: the next
+ * message that is written is followed by a "suppressed N messages" line.
+ * </p>
+ * <p>
+ * Use one sampler per call site, held in a static field, and pass it to
+ * {@link Log#log(Level, Object, LogSampler, java.util.function.Supplier)}.
+ * The defaults can be set with the environment variables LOG_SAMPLE (1 in N)
+ * and LOG_RATE (K, 0 for no limit).
+ * </p>
+ */
+public class LogSampler {
+
+    /** Keep 1 in this many messages */
+    static final int DEFAULT_SAMPLE = LogWriter.intFromEnv("LOG_SAMPLE", 1);
+
+    /** Keep at most this many messages a second, or 0 for no limit */
+    static final int DEFAULT_RATE = LogWriter.intFromEnv("LOG_RATE", 50);
+
+    private final String name;
+    private final int oneIn;
+    private final long interval;
+    private final long tolerance;
+    private final LongSupplier clock;
+
+    private final AtomicLong seen = new AtomicLong(0);
+    private final AtomicLong suppressed = new AtomicLong(0);
+
+    /** When the bucket will be full again (theoretical arrival time) */
+    private final AtomicLong full;
+
+    /**
+     * @param name Name of the call site, for the summary line
+     * @return a sampler using LOG_SAMPLE and LOG_RATE
+     */
+    public static LogSampler fromEnv(String name) {
+        return new LogSampler(name, DEFAULT_SAMPLE, DEFAULT_RATE);
+    }
+
+    /**
+     * @param name Name of the call site, for the summary line
+     * @param oneIn Keep 1 in this many messages (1 to keep them all)
+     * @param perSecond Keep at most this many messages a second (0 for no limit)
+     */
+    public LogSampler(String name, int oneIn, int perSecond) {
+        this(name, oneIn, perSecond, System::nanoTime);
+    }
+
+    LogSampler(String name, int oneIn, int perSecond, LongSupplier clock) {
+        this.name = name;
+        this.oneIn = Math.max(1, oneIn);
+        this.interval = perSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / perSecond;
+        this.tolerance = interval * (Math.max(1, perSecond) - 1);
+        this.clock = clock;
+        this.full = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * @return -1 if the message should be suppressed, otherwise the number
+     *      of messages suppressed since the last one that wasn't
+     */
+    public long acquire() {
+        if ( oneIn > 1 && seen.getAndIncrement() % oneIn != 0 ) {
+            suppressed.incrementAndGet();
+            return -1;
+        }
+
+        if ( interval > 0 ) {
+            long now = clock.getAsLong();
+            while ( true ) {
+                long tat = full.get();
+                if ( now - (tat - tolerance) < 0 ) {
+                    suppressed.incrementAndGet();
+                    return -1;
+                }
+                long next = (now - tat > 0 ? now : tat) + interval;
+                if ( full.compareAndSet(tat, next) ) {
+                    break;
+                }
+            }
+        }
+
+        return suppressed.getAndSet(0);
+    }
+
+    /**
+     * @return messages suppressed since the last one that was written
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * @param count Number of messages suppressed
+     * @return the summary line for them
+     */
+    String summary(long count) {
+        return "suppressed " + count + " " + name + " messages";
+    }
+
+    @Override
+    public String toString() {
+        return "LogSampler[" + name + ", 1 in " + oneIn
+                + (interval > 0 ? ", " + TimeUnit.SECONDS.toNanos(1) / interval + "/s" : "") + "]";
+    }
+}
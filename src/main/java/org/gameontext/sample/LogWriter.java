@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Writes log records for {@link Log} and
+ * {@link org.gameontext.sample.map.client.MapClientLog}.
+ * <p>
+ * Messages are prefixed with the identity hash of their source, so entries
+ * from different endpoints can be told apart. Nothing is formatted unless
+ * the level is enabled: parameters are formatted by the handler, and
+ * messages passed as a {@link Supplier} are only built when they will be
+ * written. Prefixes are cached in a small direct-mapped table, indexed by
+ * hash, rather than formatted for every message.
+ * </p>
+ * <p>
+ * Trace (FINE and below) is promoted to INFO so that it appears in
+ * messages.log, unless NO_LOG_LEVEL_PROMOTION is set to true.
+ * </p>
+ * <p>
+ * Set LOG_ASYNC to true to hand records to a background writer, which
+ * passes them to the logger in batches, instead of writing them on the
+ * caller's thread. If the writer falls more than LOG_ASYNC_QUEUE records
+ * behind, records are written on the caller's thread again until it
+ * catches up. The writer is stopped, and what it still has queued is
+ * written, when the application stops: see {@link #shutdown()}.
+ * </p>
+ * <p>
+ * Busy call sites can pass a {@link LogSampler} to limit how many of their
+ * messages are written.
+ * </p>
+ */
+public final class LogWriter {
+
+    private static final boolean NO_LOG_LEVEL_PROMOTION = Boolean.valueOf(System.getenv("NO_LOG_LEVEL_PROMOTION"));
+
+    private static final boolean ASYNC = Boolean.valueOf(System.getenv("LOG_ASYNC"));
+
+    /** Records waiting for the background writer */
+    static final int ASYNC_QUEUE = intFromEnv("LOG_ASYNC_QUEUE", 8192);
+
+    /** Records passed to the logger at a time by the background writer */
+    static final int BATCH = 256;
+
+    /** Cached prefixes, indexed by the low bits of the hash. Must be a power of 2 */
+    private static final int PREFIXES = 256;
+
+    private static final Prefix[] prefixes = new Prefix[PREFIXES];
+
+    private static volatile AsyncWriter asyncWriter;
+
+    /** Set once the application has stopped: records are written on the caller's thread from then on */
+    private static boolean stopped = false;
+
+    private final Logger log;
+
+    /**
+     * @param name Name of the logger to write to
+     */
+    public LogWriter(String name) {
+        this.log = Logger.getLogger(name);
+    }
+
+    /**
+     * @param level Level
+     * @return true if messages at this level will be written
+     */
+    public boolean isLoggable(Level level) {
+        return log.isLoggable(level);
+    }
+
+    public void log(Level level, Object source, String message, Object... args) {
+        if ( log.isLoggable(level) ) {
+            LogRecord record = record(level, source, message);
+            record.setParameters(args);
+            write(record);
+        }
+    }
+
+    public void log(Level level, Object source, String message, Throwable thrown) {
+        if ( log.isLoggable(level) ) {
+            LogRecord record = record(level, source, message);
+            record.setThrown(thrown);
+            write(record);
+        }
+    }
+
+    /**
+     * @param level Level
+     * @param source Object logging the message
+     * @param message Builds the message, only called if the level is enabled
+     */
+    public void log(Level level, Object source, Supplier<String> message) {
+        if ( log.isLoggable(level) ) {
+            write(record(level, source, message.get()));
+        }
+    }
+
+    /**
+     * @param level Level
+     * @param source Object logging the message
+     * @param sampler Sampler for the call site
+     * @param message Builds the message, only called if it will be written
+     */
+    public void log(Level level, Object source, LogSampler sampler, Supplier<String> message) {
+        if ( log.isLoggable(level) ) {
+            long suppressed = sampler.acquire();
+            if ( suppressed >= 0 ) {
+                write(record(level, source, message.get()));
+                if ( suppressed > 0 ) {
+                    write(record(level, source, sampler.summary(suppressed)));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param level Level
+     * @param source Object logging the message
+     * @param sampler Sampler for the call site
+     * @param message Message, with parameters
+     * @param args Parameters
+     */
+    public void log(Level level, Object source, LogSampler sampler, String message, Object... args) {
+        if ( log.isLoggable(level) ) {
+            long suppressed = sampler.acquire();
+            if ( suppressed >= 0 ) {
+                log(level, source, message, args);
+                if ( suppressed > 0 ) {
+                    write(record(level, source, sampler.summary(suppressed)));
+                }
+            }
+        }
+    }
+
+    private LogRecord record(Level level, Object source, String message) {
+        LogRecord record = new LogRecord(useLevel(level), prefix(source).concat(message));
+        record.setLoggerName(log.getName());
+        // Otherwise the caller is found by walking the stack, possibly on the
+        // background writer's thread
+        record.setSourceClassName(source == null ? null
+                : source instanceof Class ? ((Class<?>) source).getName() : source.getClass().getName());
+        record.setSourceMethodName(null);
+        return record;
+    }
+
+    private void write(LogRecord record) {
+        AsyncWriter w = ASYNC ? asyncWriter() : null;
+        if ( w == null || !w.offer(log, record) ) {
+            log.log(record);
+        }
+    }
+
+    /**
+     * @param source Object logging a message
+     * @return ": hash     : ", the hash in hex padded to 8 characters
+     */
+    static String prefix(Object source) {
+        int hash = Log.getHash(source);
+        int i = hash & (PREFIXES - 1);
+
+        // Entries are immutable: a racing update just means computing it again
+        Prefix p = prefixes[i];
+        if ( p == null || p.hash != hash ) {
+            p = new Prefix(hash);
+            prefixes[i] = p;
+        }
+        return p.text;
+    }
+
+    /**
+     * This bumps enabled trace up to INFO level, so it appears in messages.log
+     * @param level Original level
+     * @return Original Level or INFO level, whichever is greater
+     */
+    static Level useLevel(Level level) {
+        // The "not not" here isn't great, but it makes the environment variable
+        // much easier to read if the default behaviour is to have this level
+        // promotion switched on
+        if ( !NO_LOG_LEVEL_PROMOTION && level.intValue() < Level.INFO.intValue() ) {
+            return Level.INFO;
+        }
+        return level;
+    }
+
+    /**
+     * @return the background writer, or null once the application has stopped
+     */
+    private static AsyncWriter asyncWriter() {
+        AsyncWriter w = asyncWriter;
+        if ( w == null ) {
+            synchronized (LogWriter.class) {
+                w = asyncWriter;
+                if ( w == null && !stopped ) {
+                    w = asyncWriter = new AsyncWriter(ASYNC_QUEUE);
+                }
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Stop the background writer (if there is one), and write whatever it
+     * still has queued. Anything logged afterwards is written on the
+     * caller's thread. Called when the application stops, so that the
+     * writer's thread doesn't outlive it.
+     * @see LogWriterListener
+     */
+    public static void shutdown() {
+        AsyncWriter w;
+        synchronized (LogWriter.class) {
+            stopped = true;
+            w = asyncWriter;
+            asyncWriter = null;
+        }
+        if ( w != null ) {
+            w.stop();
+        }
+    }
+
+    /**
+     * Logging is set up before anything can be injected, and is used after
+     * the application's resources are gone, so its settings (here and in
+     * {@link LogSampler}) are read straight from the environment.
+     * @param name Environment variable
+     * @param defaultValue Value if the variable is not set, or not a number
+     */
+    static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if ( value != null ) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // Can't log this: we are the logger
+            }
+        }
+        return defaultValue;
+    }
+
+    private static final class Prefix {
+        final int hash;
+        final String text;
+
+        Prefix(int hash) {
+            this.hash = hash;
+            StringBuilder sb = new StringBuilder(14).append(": ").append(Integer.toHexString(hash));
+            while ( sb.length() < 10 ) {
+                sb.append(' ');
+            }
+            this.text = sb.append(" : ").toString();
+        }
+    }
+
+    /**
+     * Passes queued records to their loggers, a batch at a time, on a
+     * daemon thread.
+     */
+    static final class AsyncWriter implements Runnable {
+        /** How long to wait for the writer to finish its batch when stopping */
+        private static final long STOP_WAIT = TimeUnit.SECONDS.toMillis(5);
+
+        private final BlockingQueue<Entry> queue;
+        final Thread thread;
+        private volatile boolean closed = false;
+
+        AsyncWriter(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            thread = new Thread(this, "room-log-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * @return false if the queue is full or the writer has stopped, and
+         *      the record should be written by the caller
+         */
+        boolean offer(Logger logger, LogRecord record) {
+            return !closed && queue.offer(new Entry(logger, record));
+        }
+
+        /**
+         * Stop the thread, and write what is left on the caller's thread
+         */
+        void stop() {
+            closed = true;
+            thread.interrupt();
+            try {
+                thread.join(STOP_WAIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            List<Entry> rest = new ArrayList<>(queue.size());
+            queue.drainTo(rest);
+            write(rest);
+        }
+
+        @Override
+        public void run() {
+            List<Entry> batch = new ArrayList<>(BATCH);
+            while ( true ) {
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, BATCH - 1);
+                    write(batch);
+                    batch.clear();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+
+        private static void write(List<Entry> entries) {
+            for (Entry e : entries) {
+                try {
+                    e.logger.log(e.record);
+                } catch (RuntimeException ex) {
+                    // A broken handler shouldn't stop the writer
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Logger logger;
+        final LogRecord record;
+
+        Entry(Logger logger, LogRecord record) {
+            this.logger = logger;
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.gameontext.sample.StartupTimings.Milestone;
+import org.gameontext.sample.map.client.MapClient;
+import org.gameontext.sample.metrics.Metrics;
+import org.gameontext.sample.metrics.PrometheusWriter;
+import org.gameontext.sample.protocol.OutboundStats;
+import org.gameontext.sample.protocol.PlayerMailboxes;
+import org.gameontext.sample.protocol.SessionRegistry;
+import org.gameontext.sample.weather.CircuitBreaker;
+import org.gameontext.sample.weather.WeatherClient;
+
+/**
+ * The room's metrics, in the Prometheus text format.
+ * <p>
+ * Counters and latencies are recorded as things happen (see {@link Metrics});
+ * gauges are read from the beans that keep them when metrics are requested.
+ * </p>
+ */
+@Path("/metrics")
+public class MetricsEndpoint {
+
+    /** Players whose mailboxes are reported one by one (the deepest ones) */
+    static final int DEEPEST_MAILBOXES = 5;
+
+    @Inject
+    private SessionRegistry sessionRegistry;
+
+    @Inject
+    private PlayerMailboxes mailboxes;
+
+    @Inject
+    private WeatherClient weatherClient;
+
+    @Inject
+    private MapClient mapClient;
+
+    @GET
+    @Produces(PrometheusWriter.CONTENT_TYPE)
+    public StreamingOutput metrics() {
+        return output -> {
+            Writer w = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writeTo(new PrometheusWriter(w));
+            w.flush();
+        };
+    }
+
+    void writeTo(PrometheusWriter out) throws IOException {
+        Metrics.writeTo(out);
+
+        if ( sessionRegistry != null ) {
+            out.gauge("room_players", "Players with at least one open session", sessionRegistry.getPlayerCount());
+        }
+
+        if ( mailboxes != null ) {
+            int queued = 0;
+            int players = 0;
+            for (PlayerMailboxes.Stats s : mailboxes.getStats()) {
+                queued += s.getDepth();
+                players++;
+            }
+            out.gauge("room_mailboxes", "Players with a mailbox for inbound messages", players);
+            out.gauge("room_mailbox_queued", "Inbound messages waiting to be handled, across all players", queued);
+
+            List<PlayerMailboxes.Stats> deepest = mailboxes.getDeepest(DEEPEST_MAILBOXES);
+            if ( !deepest.isEmpty() ) {
+                out.header("room_mailbox_depth", "Inbound messages waiting, for the players with the most waiting", "gauge");
+                for (PlayerMailboxes.Stats s : deepest) {
+                    out.sample("room_mailbox_depth", "player", s.getUserId(), s.getDepth());
+                }
+                out.header("room_mailbox_handle_max_seconds", "Longest a message took to handle, for the same players", "gauge");
+                for (PlayerMailboxes.Stats s : deepest) {
+                    out.sample("room_mailbox_handle_max_seconds", "player", s.getUserId(), s.getMaxMillis() / 1000);
+                }
+            }
+        }
+
+        out.gauge("room_outbound_queued", "Outbound frames waiting to be written, across all sessions", OutboundStats.getQueued());
+        out.gauge("room_outbound_deepest", "Deepest any session's outbound queue has been", OutboundStats.getDeepest());
+        out.counter("room_outbound_sent_total", "Outbound frames written", OutboundStats.getSent());
+        out.counter("room_outbound_dropped_total", "Chat frames dropped because a receiver was not keeping up", OutboundStats.getDropped());
+        out.counter("room_outbound_evicted_total", "Sessions closed because they were not keeping up", OutboundStats.getEvicted());
+
+        if ( weatherClient != null ) {
+            CircuitBreaker.State current = weatherClient.getBreaker().getState();
+            out.header("room_upstream_breaker_state", "Circuit breaker state for upstream services (1 for the current state)", "gauge");
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                out.sample("room_upstream_breaker_state", "service", "weather", "state", state.name(),
+                        state == current ? 1 : 0);
+            }
+        }
+
+        if ( mapClient != null ) {
+            out.counter("room_map_requests_total", "Requests made to the map service for room data", mapClient.getAttempts());
+            out.counter("room_map_successes_total", "Requests for room data the map service answered", mapClient.getSuccesses());
+            out.counter("room_map_give_ups_total", "Map data refreshes that ran out of retries", mapClient.getGiveUps());
+            long lastRefresh = mapClient.getLastRefresh();
+            if ( lastRefresh > 0 ) {
+                out.gauge("room_map_data_age_seconds", "Time since the map service last answered",
+                        (System.currentTimeMillis() - lastRefresh) / 1000.0);
+            }
+        }
+
+        Map<Milestone, Long> startup = StartupTimings.getReport();
+        if ( !startup.isEmpty() ) {
+            out.header("room_startup_seconds", "Time from JVM start until each startup milestone", "gauge");
+            for (Map.Entry<Milestone, Long> e : startup.entrySet()) {
+                out.sample("room_startup_seconds", "milestone", e.getKey().name(), e.getValue() / 1000.0);
+            }
+        }
+    }
+}
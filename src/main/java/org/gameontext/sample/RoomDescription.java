@@ -19,6 +19,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -27,6 +28,7 @@ import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 
 import org.gameontext.sample.map.client.MapData;
+import org.gameontext.sample.protocol.Message;
 
 /**
  * This is how our room is described.
@@ -40,9 +42,9 @@ public class RoomDescription {
     private final JsonObject EMPTY_COMMANDS = Json.createObjectBuilder().build();
     private final JsonArray EMPTY_INVENTORY = Json.createArrayBuilder().build();
 
-    private String name = "weather";
-    private String fullName = "A Weather Room";
-    private String description = "Welcome to the Weather Room.  Here you see all types of maps, globes, thermometers, and weather vanes.  On one wall you see a window.  Another wall has a TV with the Weather Channel playing...you can't hear it.  You want to know what the current temperature in your hometown is so you type in a special command followed by the zip code.....  ";
+    private volatile String name = "weather";
+    private volatile String fullName = "A Weather Room";
+    private volatile String description = "Welcome to the Weather Room.  Here you see all types of maps, globes, thermometers, and weather vanes.  On one wall you see a window.  Another wall has a TV with the Weather Channel playing...you can't hear it.  You want to know what the current temperature in your hometown is so you type in a special command followed by the zip code.....  ";
 
     private Map<String, String> commands = new ConcurrentHashMap<>();
     private JsonObject commandObj = null;
@@ -50,6 +52,10 @@ public class RoomDescription {
     private Set<String> items = new CopyOnWriteArraySet<>();
     private JsonArray itemObj = null;
 
+    /** Incremented whenever something that appears in the location message changes */
+    private final AtomicLong version = new AtomicLong(0);
+    private volatile Location location = null;
+
     public RoomDescription() {}
 
     /**
@@ -76,6 +82,7 @@ public class RoomDescription {
         if ( data.getDescription() != null ) {
             this.description = data.getDescription();
         }
+        version.incrementAndGet();
     }
 
     /**
@@ -98,6 +105,7 @@ public class RoomDescription {
      */
     public void setFullName(String fullName) {
         this.fullName = fullName;
+        version.incrementAndGet();
     }
 
     public String getDescription() {
@@ -106,6 +114,7 @@ public class RoomDescription {
 
     public void setDescription(String description) {
         this.description = description;
+        version.incrementAndGet();
     }
 
     /**
@@ -133,11 +142,13 @@ public class RoomDescription {
         }
         commands.put(command, description);
         commandObj = null;
+        version.incrementAndGet();
     }
 
     public void removeCommand(String command) {
         commands.remove(command);
         commandObj = null;
+        version.incrementAndGet();
     }
 
     /**
@@ -162,11 +173,70 @@ public class RoomDescription {
     public void addItem(String itemName) {
         items.add(itemName);
         itemObj = null;
+        version.incrementAndGet();
     }
 
     public void removeItem(String itemName) {
         items.remove(itemName);
         itemObj = null;
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever the location message would change
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * The body of the location message is the same for every player: build it
+     * once per version of the room description, and return the cached body
+     * until something changes.
+     * @return JSON payload for location messages, and its serialized form
+     * @see Message#createLocationMessage(String, RoomDescription)
+     */
+    public Location getLocation() {
+        long v = version.get();
+        Location l = location;
+
+        if ( l == null || l.version != v ) {
+            // If the description changes while this is being built, the version
+            // will have moved on, and the next caller will build it again.
+            l = location = new Location(v, buildLocationPayload());
+        }
+
+        return l;
+    }
+
+    /**
+     * @return Serialized JSON payload for location messages
+     * @see #getLocation()
+     */
+    public String getLocationPayload() {
+        return getLocation().getPayload();
+    }
+
+    private JsonObject buildLocationPayload() {
+        JsonObjectBuilder payload = Json.createObjectBuilder();
+        payload.add("type", "location");
+        payload.add("name", name);
+        payload.add("fullName", fullName);
+        payload.add("description", description);
+
+        // convert map of commands into JsonObject
+        JsonObject commands = getCommands();
+        if ( !commands.isEmpty()) {
+            payload.add("commands", commands);
+        }
+
+        // Convert list of items into json array
+        JsonArray inventory = getInventory();
+        if ( !inventory.isEmpty()) {
+            payload.add("roomInventory", inventory);
+        }
+
+        return payload.build();
     }
 
     @Override
@@ -180,4 +250,28 @@ public class RoomDescription {
 
         return s.toString();
     }
+
+    /**
+     * The payload of location messages for one version of the description,
+     * both as JSON and as text
+     */
+    public static class Location {
+        private final long version;
+        private final JsonObject body;
+        private final String payload;
+
+        Location(long version, JsonObject body) {
+            this.version = version;
+            this.body = body;
+            this.payload = body.toString();
+        }
+
+        public JsonObject getBody() {
+            return body;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+    }
 }
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Where the room's blocking work runs: handling inbound messages (see
+ * {@link org.gameontext.sample.protocol.PlayerMailboxes}) and calls to the
+ * weather service. Outbound writes are asynchronous and don't need a thread.
+ * <p>
+ * By default this is Liberty's managed executor, which shares the server's
+ * (small) thread pool. Set the ROOM_THREADS environment variable to
+ * {@code virtual} to run each task on its own virtual thread, so that tasks
+ * blocked on an upstream service don't hold on to a platform thread. Virtual
+ * threads need Java 21: on older JVMs, and with ROOM_THREADS={@code platform},
+ * tasks run on a dedicated pool of at most ROOM_THREADS_MAX platform threads.
+ * </p>
+ * <p>
+ * Tasks run outside of the managed executor don't have the application's
+ * JNDI or CDI context: they can use what was injected into the beans that
+ * submit them, but shouldn't look things up.
+ * </p>
+ */
+@ApplicationScoped
+public class RoomExecutor implements Executor {
+
+    public enum Mode {
+        /** Liberty's managed executor */
+        managed,
+        /** A virtual thread per task */
+        virtual,
+        /** A bounded pool of platform threads */
+        platform
+    }
+
+    /** Default maximum number of platform threads */
+    static final int DEFAULT_MAX_THREADS = 64;
+
+    /** Tasks that can wait for a platform thread before new ones are rejected */
+    static final int PLATFORM_QUEUE = 1024;
+
+    /**
+     * Executor provided by the container (concurrent-1.0 feature).
+     */
+    @Resource
+    protected ManagedExecutorService managedExecutor;
+
+    /**
+     * One of managed, virtual or platform.
+     * This is set via the environment variable ROOM_THREADS. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "roomThreads")
+    protected String threads;
+
+    /**
+     * Maximum platform threads.
+     * This is set via the environment variable ROOM_THREADS_MAX. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "roomThreadsMax")
+    protected String threadsMax;
+
+    private volatile Executor delegate = ForkJoinPool.commonPool();
+    private volatile Mode mode = Mode.managed;
+    private ExecutorService owned = null;
+
+    @PostConstruct
+    protected void postConstruct() {
+        Mode requested = Mode.managed;
+        if ( threads != null && !threads.contains("ROOM_THREADS") ) {
+            try {
+                requested = Mode.valueOf(threads.trim().toLowerCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                Log.log(Level.WARNING, this, "Ignoring invalid value for ROOM_THREADS: {0}", threads);
+            }
+        }
+
+        int max = DEFAULT_MAX_THREADS;
+        if ( threadsMax != null && !threadsMax.contains("ROOM_THREADS_MAX") ) {
+            try {
+                max = Integer.parseInt(threadsMax.trim());
+            } catch (NumberFormatException e) {
+                Log.log(Level.WARNING, this, "Ignoring invalid value for ROOM_THREADS_MAX: {0}", threadsMax);
+            }
+        }
+
+        configure(requested, max);
+        Log.log(Level.INFO, this, "Room executor initialized: {0}", this);
+    }
+
+    @PreDestroy
+    protected void preDestroy() {
+        if ( owned != null ) {
+            owned.shutdown();
+        }
+    }
+
+    void configure(Mode requested, int max) {
+        mode = requested;
+        switch (requested) {
+            case virtual:
+                owned = newVirtualThreadExecutor();
+                if ( owned != null ) {
+                    break;
+                }
+                Log.log(Level.WARNING, this, "Virtual threads are not supported by this JVM: using {0} platform threads", max);
+                mode = Mode.platform;
+                // fall through
+            case platform:
+                owned = newPlatformExecutor(max);
+                break;
+            case managed:
+            default:
+                if ( managedExecutor == null ) {
+                    // Outside of the container (unit tests), there is no managed executor
+                    Log.log(Level.FINE, this, "No managed executor: using the common pool");
+                } else {
+                    delegate = managedExecutor;
+                }
+                return;
+        }
+        delegate = owned;
+    }
+
+    /**
+     * @return how tasks are run
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return tasks waiting for a platform thread, or -1 if the executor
+     *      doesn't say (managed executor, virtual threads)
+     */
+    public int getQueued() {
+        return owned instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) owned).getQueue().size() : -1;
+    }
+
+    /**
+     * @return share (0-1) of the platform pool's queue that is in use, or -1
+     *      if the executor doesn't say
+     */
+    public double getSaturation() {
+        int queued = getQueued();
+        return queued < 0 ? -1 : (double) queued / PLATFORM_QUEUE;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(command);
+    }
+
+    @Override
+    public String toString() {
+        return "RoomExecutor[" + mode + (owned instanceof ThreadPoolExecutor
+                ? ", max=" + ((ThreadPoolExecutor) owned).getMaximumPoolSize() : "") + "]";
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task, or null if
+     *      the JVM doesn't have virtual threads (before Java 21)
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param max Maximum number of threads
+     * @return a pool of at most {@code max} daemon threads, which rejects
+     *      tasks once {@link #PLATFORM_QUEUE} are waiting
+     */
+    public static ExecutorService newPlatformExecutor(int max) {
+        AtomicInteger count = new AtomicInteger(0);
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "room-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(max, max, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(PLATFORM_QUEUE), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -15,33 +15,29 @@
  *******************************************************************************/
 package org.gameontext.sample;
 
-import java.util.Locale;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
-import javax.json.Json;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.json.JsonArray;
-//import java.lang.Object;
-//import org.json.JSONObject;
 import javax.websocket.Session;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import javax.net.ssl.HttpsURLConnection;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-
+import org.gameontext.sample.command.CommandRegistry;
+import org.gameontext.sample.command.ExamineCommand;
+import org.gameontext.sample.command.GoCommand;
+import org.gameontext.sample.command.LookCommand;
+import org.gameontext.sample.command.RoomCommand;
+import org.gameontext.sample.command.WeatherCommand;
 import org.gameontext.sample.map.client.MapClient;
 import org.gameontext.sample.protocol.Message;
 import org.gameontext.sample.protocol.RoomEndpoint;
+import org.gameontext.sample.weather.WeatherClient;
 
 /**
  * Here is where your room implementation lives. The WebSocket endpoint
@@ -50,6 +46,10 @@ import org.gameontext.sample.protocol.RoomEndpoint;
  * <p>
  * This is an ApplicationScoped CDI bean, which means it will be started
  * when the server/application starts, and stopped when it stops.
+ * <p>
+ * Starting the room doesn't wait for anything: the map service is asked for
+ * the room's data in the background (see {@link MapClient#updateRoom}), and the
+ * room uses its built-in description until the answer arrives.
  *
  */
 @ApplicationScoped
@@ -64,6 +64,10 @@ public class RoomImplementation {
     public static final String HELLO_USER = "Welcome!";
     public static final String GOODBYE_ALL = "%s has gone";
     public static final String GOODBYE_USER = "Bye!";
+    public static final String STILL_CHECKING = "The needles twitch. Still checking the instruments…";
+    public static final String INSTRUMENTS_BUSY = "The instrument panel is blinking furiously: too many people are asking about the weather. Try again in a moment.";
+    public static final String INSTRUMENTS_DOWN = "A small sign is taped over the instrument panel: `Weather station unreachable. Back in a moment.` Try again in a minute or so.";
+    public static final String INSTRUMENTS_SILENT = "The instrument panel flickers and goes dark. Nobody out there is answering. Try again later.";
 
     /**
      * The room id: this is translated from the ROOM_ID environment variable into
@@ -75,8 +79,23 @@ public class RoomImplementation {
     @Inject
     protected MapClient mapClient;
 
+    @Inject
+    protected WeatherClient weatherClient;
+
+    /**
+     * Commands discovered by CDI: see {@link RoomCommand}
+     */
+    @Inject
+    @Any
+    protected Instance<RoomCommand> discoveredCommands;
+
     protected RoomDescription roomDescription = new RoomDescription();
 
+    protected CommandRegistry commands = new CommandRegistry(roomDescription);
+
+    /** Every inbound message is traced: keep that from swamping the log */
+    private static final LogSampler RECEIVED_TRACE = LogSampler.fromEnv("received message");
+
     @PostConstruct
     protected void postConstruct() {
 
@@ -88,10 +107,28 @@ public class RoomImplementation {
             mapClient.updateRoom(roomId, roomDescription);
         }
 
-        // Customize the room
-        roomDescription.addCommand("/weatherLike", "What's the weather like at <zipcode>");
+        // Customize the room: commands with a description are added to the room description
+        if ( discoveredCommands != null ) {
+            discoveredCommands.forEach(commands::register);
+        } else {
+            // Not managed by CDI (unit tests)
+            commands.register(new GoCommand());
+            commands.register(new LookCommand());
+            commands.register(new ExamineCommand());
+            commands.register(new WeatherCommand(weatherClient));
+        }
 
         Log.log(Level.INFO, this, "Room initialized: {0}", roomDescription);
+        StartupTimings.reached(StartupTimings.Milestone.roomReady);
+    }
+
+    /**
+     * Application scoped beans are created when they are first used, which
+     * would be while handling the first message. Observing the application's
+     * startup creates the room (and starts the map lookup) straight away.
+     */
+    protected void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        Log.log(Level.FINE, this, "Room started with the application");
     }
 
     @PreDestroy
@@ -110,11 +147,10 @@ public class RoomImplementation {
         // Fetch the userId and the username of the sender.
         // The username can change overtime, so always use the sent username when
         // constructing messages
-        JsonObject messageBody = message.getParsedBody();
-        String userId = messageBody.getString(Message.USER_ID);
-        String username = messageBody.getString(Message.USERNAME);
+        String userId = message.getUserId();
+        String username = message.getUsername();
 
-        Log.log(Level.FINEST, this, "Received message from {0}({1}): {2}", username, userId, messageBody);
+        Log.log(Level.FINEST, this, RECEIVED_TRACE, () -> "Received message from " + username + "(" + userId + "): " + message);
 
         // Who doesn't love switch on strings in Java 8?
         switch(message.getTarget()) {
@@ -181,11 +217,14 @@ public class RoomImplementation {
             //		    "userId": "<userId>"
             //		    "content": "<message>"
             //		}
-            String content = messageBody.getString(Message.CONTENT);
+            String content = message.getContent();
 
             if ( content.charAt(0) == '/' ) {
                 // command
-                processCommand(userId, username, content, endpoint, session);
+                if ( !commands.dispatch(userId, username, content, endpoint, session) ) {
+                    endpoint.sendMessage(session,
+                            Message.createSpecificEvent(userId, String.format(UNKNOWN_COMMAND, content)));
+                }
             } else {
                 // See RoomImplementationTest#testHandleChatMessage
 
@@ -201,206 +240,7 @@ public class RoomImplementation {
         }
     }
 
-    private void processCommand(String userId, String username, String content, RoomEndpoint endpoint, Session session) {
-        // Work mostly off of lower case.
-        String contentToLower = content.toLowerCase(Locale.ENGLISH).trim();
-
-        String firstWord;
-        String remainder;
-        String zipCode;
-
-        int firstSpace = contentToLower.indexOf(' '); // find the first space
-        if ( firstSpace < 0 || contentToLower.length() <= firstSpace ) {
-            firstWord = contentToLower;
-            remainder = null;
-        } else {
-            firstWord = contentToLower.substring(0, firstSpace);
-            remainder = contentToLower.substring(firstSpace+1);
-        }
-
-        switch(firstWord) {
-            case "/go":
-                // See RoomCommandsTest#testHandle*Go*
-                // Always process the /go command.
-                String exitId = getExitId(remainder);
-
-                if ( exitId == null ) {
-                    // Send error only to source session
-                    if ( remainder == null ) {
-                        endpoint.sendMessage(session,
-                                Message.createSpecificEvent(userId, UNSPECIFIED_DIRECTION));
-                    } else {
-                        endpoint.sendMessage(session,
-                                Message.createSpecificEvent(userId, String.format(UNKNOWN_DIRECTION, remainder)));
-                    }
-                } else {
-                    // Allow the exit
-                    endpoint.sendMessage(session,
-                            Message.createExitMessage(userId, exitId, String.format(GO_FORTH, prettyDirection(exitId))));
-                }
-                break;
-
-            case "/look":
-            case "/examine":
-                // See RoomCommandsTest#testHandle*Look*
-
-                // Treat look and examine the same (though you could make them do different things)
-                if ( remainder == null || remainder.contains("room") ) {
-                    // This is looking at or examining the entire room. Send the player location message,
-                    // which includes the room description and inventory
-                    endpoint.sendMessage(session, Message.createLocationMessage(userId, roomDescription));
-                } else {
-                    endpoint.sendMessage(session,
-                            Message.createSpecificEvent(userId, LOOK_UNKNOWN));
-                }
-                break;
-
-            case "/weatherlike":
-                // Custom command! /ping is added to the room description in the @PostConstruct method
-                // See RoomCommandsTest#testHandlePing*
-                endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username, userId, "The instruments hum and the lights fade in and out.  \n\n"));
-
-                if ( remainder == null ) {
-                    endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username, userId, "You concentrate really, really hard.\n\nYou quietly look around and glance at the instrument panel and read:\n\n `It's room temperature.  Try typing a zip code with the command.`"));
-
-                } else {
-                    //Need to pre-process the remainder to ensure
-                    //   a) there are 5 characters
-                    //   b) the characters are numbers.  Won't validate the numbers are a valid zipcode.  We're not gurus.
-                    if (remainder.length() < 5) {
-                       //message that we need 5 characters for a valid zip
-                       endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username + ": " + remainder, userId, "Suddenly you hear a loud **_CLANK!_**  You look at the instrument panel and read:\n\n `Whoopsie!  You need at least 5 digits for a valid zip code.  Try again.`  "));
-                    }
-                    else {
-                       // There are 5 characters, are they numbers?i
-                       try
-                       {
-                        // the String to int conversion happens here
-                        int i = Integer.parseInt(remainder.trim());
-                        // Conversion worked, let's get the zipCode as string
-                        zipCode = remainder.substring(0,5);
-                        weatherGet(zipCode, endpoint, session, userId, username);
-                       }
-                       catch (NumberFormatException nfe)
-                       {
-                        // If we get here, the conversion failed!  It wasn't a numeric value so print a message
-                        // This doesn't mean it is a valid zip code, just means there were non-numeric characters entered.
-                        endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username + ": " + remainder, userId, "Suddenly you hear a loud **_KER-THUNK!_**  You look at the instrument panel and read:\n\n `Are you trying to choke me?  You need 5 NUMBERS for a valid zip code.  I'm not that smart.  Try again.`  "));
-
-                       }
-                    }
-                }
-                break;
-
-            default:
-                endpoint.sendMessage(session,
-                        Message.createSpecificEvent(userId, String.format(UNKNOWN_COMMAND, content)));
-                break;
-        }
-    }
-
-
-    /**
-     * Given a lower case string describing the direction someone wants
-     * to go (/go N, or /go North), filter or transform that into a recognizable
-     * id that can be used as an index into a known list of exits. Always valid
-     * are n, s, e, w. If the string doesn't match a known exit direction,
-     * return null.
-     *
-     * @param lowerDirection String read from the provided message
-     * @return exit id or null
-     */
-    protected String getExitId(String lowerDirection) {
-        if (lowerDirection == null) {
-            return null;
-        }
-
-        switch(lowerDirection) {
-            case "north" :
-            case "south" :
-            case "east" :
-            case "west" :
-                return lowerDirection.substring(0,1);
-
-            case "n" :
-            case "s" :
-            case "e" :
-            case "w" :
-                // Assume N/S/E/W are managed by the map service.
-                return lowerDirection;
-
-            default  :
-                // Otherwise unknown direction
-                return null;
-        }
-    }
-
-    /**
-     * From the direction we used as a key
-     * @param exitId The exitId in lower case
-     * @return A pretty version of the direction for use in the exit message.
-     */
-    protected String prettyDirection(String exitId) {
-        switch(exitId) {
-            case "n" : return "North";
-            case "s" : return "South";
-            case "e" : return "East";
-            case "w" : return "West";
-
-            default  : return exitId;
-        }
-    }
-
     public boolean ok() {
         return mapClient.ok();
     }
-
-    public static void weatherGet(String zipC, RoomEndpoint endpoint, Session session, String userId, String username){
-    try {
-
-                String output = "";
-                //Build our URL with the zipCode
-		URL url = new URL("https://twcservice.mybluemix.net/api/weather/v1/location/"+zipC+"%3A4%3AUS/observations.json?language=en-US&units=e");
-                //uid/password will be unique to the Weather Company service you setup
-                String uid="XXXXXXXXXXXXXXXXXXXXXXXXXXXXX";
-                String password="YYYYYYYYYYYYYYYYY";
-		HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-		conn.setRequestMethod("GET");
-		conn.setRequestProperty("Accept", "application/json");
-                conn.setRequestProperty ("Authorization", "Basic " + java.util.Base64.getEncoder().encodeToString( (uid+":"+password).getBytes() ));
-		if (conn.getResponseCode() != 200) {
-                   //No code here to handle every error condition.  Just display the error message.
-                   String rc =  Integer.toString(conn.getResponseCode());
-                   endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username + ": " + zipC, userId, "Suddenly you hear a loud **_KLAXON HORN_** followed by a familar **'Danger, Will Robinson! Danger!'**.  You look at the instrument panel and read: \n\n`Attempted to find the Current Weather conditions for " + zipC + " but instead received this HTTP response code:` \n\n " + rc + " " + conn.getResponseMessage()));
-		}
-                //We have the connection conn, get the data stream using createReader
-                JsonReader rdr = Json.createReader(conn.getInputStream());
-                //Read the JsonReader into a JsonObject
-                JsonObject obj = rdr.readObject();
-                //Since the data returns 2 JsonObjects named "metadata" and "observation", let's get the data for the observation as our result
-                JsonObject result = obj.getJsonObject("observation");
-                // When we review the actual datastream, we find each field and assign to a variable.
-                // As we want to display the values as text, we cast the numeric values to String.
-                // We retrieve the value by stating the key name
-                String wName=result.getString("obs_name");
-                String wPhrase=result.getString("wx_phrase");
-                String wTemp=Integer.toString(result.getInt("temp"));
-                String wWdir=result.getString("wdir_cardinal");
-                String wWsp=Integer.toString(result.getInt("wspd"));
-                // Here we build the weather report phrase by combining the above variables with some formatting.
-                String wReport = "```"+wName+" reports the weather is "+wPhrase+ " and " +wTemp+"°F.  Wind is "+wWdir+" at "+wWsp+" Mph.```";
-                endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username + ": " + zipC, userId, "Suddenly you hear a loud **_WHOOSH!_** followed by a familar **_TADA!_**  You look at the instrument panel and read: \n\n`The weather condition in` " + zipC + " `is:`\n\n"+wReport));
-		conn.disconnect();
-
-	  } catch (MalformedURLException e) {
-
-//        	endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username + ": " + zipC, userId,	"MalformedURLException of some type. "));
-
-	  } catch (IOException e) {
-
-//	        endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username + ": " + zipC, userId,"Error message:"));
-
-	  }
-
-	}
 }
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+/**
+ * How long the room took to get going, measured from JVM start.
+ * <p>
+ * Each milestone is recorded (and logged) the first time it is reached.
+ * Time to first ack is how soon the room is useful to the mediator; time to
+ * map data is how long it runs with its built-in description.
+ * </p>
+ */
+public class StartupTimings {
+
+    public enum Milestone {
+        /** The room (and the beans it uses) has been created */
+        roomReady,
+        /** The first connection has been acknowledged */
+        firstAck,
+        /** Room data from the map service has been applied */
+        mapData
+    }
+
+    private static final long NOT_REACHED = -1;
+
+    /** Milliseconds from JVM start to each milestone */
+    private static final AtomicLongArray reached = new AtomicLongArray(Milestone.values().length);
+
+    static {
+        for (int i = 0; i < reached.length(); i++) {
+            reached.set(i, NOT_REACHED);
+        }
+    }
+
+    private StartupTimings() {}
+
+    /**
+     * Record a milestone, if it hasn't been reached before
+     * @param milestone Milestone that has been reached
+     */
+    public static void reached(Milestone milestone) {
+        long elapsed = sinceStart();
+        if ( reached.compareAndSet(milestone.ordinal(), NOT_REACHED, elapsed) ) {
+            Log.log(Level.INFO, StartupTimings.class, "Startup: {0} after {1}ms", milestone, elapsed);
+        }
+    }
+
+    /**
+     * @param milestone Milestone
+     * @return milliseconds from JVM start until the milestone was first
+     *      reached, or -1 if it hasn't been
+     */
+    public static long get(Milestone milestone) {
+        return reached.get(milestone.ordinal());
+    }
+
+    /**
+     * @return milliseconds from JVM start for each milestone that has been reached
+     */
+    public static Map<Milestone, Long> getReport() {
+        Map<Milestone, Long> report = new EnumMap<>(Milestone.class);
+        for (Milestone m : Milestone.values()) {
+            long elapsed = get(m);
+            if ( elapsed != NOT_REACHED ) {
+                report.put(m, elapsed);
+            }
+        }
+        return report;
+    }
+
+    static void reset() {
+        for (int i = 0; i < reached.length(); i++) {
+            reached.set(i, NOT_REACHED);
+        }
+    }
+
+    private static long sinceStart() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.command;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import javax.websocket.Session;
+
+import org.gameontext.sample.Log;
+import org.gameontext.sample.RoomDescription;
+import org.gameontext.sample.metrics.Metrics;
+import org.gameontext.sample.protocol.RoomEndpoint;
+
+/**
+ * The commands a room understands, by verb.
+ * <p>
+ * The registry owns both dispatch and the list of commands advertised in the
+ * room description: registering a command with a description adds it to the
+ * location message, unregistering it takes it away again.
+ * </p>
+ * <p>
+ * Lookups don't copy the content: the verb is hashed and compared in place,
+ * ignoring case, against an open-addressed table. The table is replaced (not
+ * modified) when commands are registered, so dispatch never locks.
+ * </p>
+ */
+public class CommandRegistry {
+
+    /** Verb counted in metrics for commands the room doesn't have */
+    static final String UNKNOWN = "unknown";
+
+    private final RoomDescription room;
+
+    /** Open-addressed table of commands, indexed by hash of the lower case verb */
+    private volatile RoomCommand[] table = new RoomCommand[16];
+    private int size = 0;
+
+    /**
+     * @param room Room description listing the commands
+     */
+    public CommandRegistry(RoomDescription room) {
+        this.room = room;
+    }
+
+    /**
+     * Add (or replace) a command
+     * @param command Command to add
+     */
+    public synchronized void register(RoomCommand command) {
+        String verb = command.getVerb();
+        if ( verb == null || verb.length() < 2 || verb.charAt(0) != '/' || indexOfWhitespace(verb, 0) < verb.length() ) {
+            throw new IllegalArgumentException("Commands start with / and are a single word: " + verb);
+        }
+
+        RoomCommand[] t = table;
+        if ( (size + 1) * 2 > t.length ) {
+            t = new RoomCommand[t.length * 2];
+            for (RoomCommand c : table) {
+                if ( c != null ) {
+                    put(t, c);
+                }
+            }
+        } else {
+            t = Arrays.copyOf(t, t.length);
+        }
+        if ( put(t, command) ) {
+            size++;
+        }
+        table = t;
+
+        if ( command.getDescription() != null ) {
+            room.addCommand(verb, command.getDescription());
+        } else {
+            room.removeCommand(verb);
+        }
+        Log.log(Level.FINE, this, "Registered {0}", verb);
+    }
+
+    /**
+     * Remove a command
+     * @param verb Command to remove, e.g. {@code /weatherLike}
+     */
+    public synchronized void unregister(String verb) {
+        RoomCommand[] t = new RoomCommand[table.length];
+        boolean found = false;
+        for (RoomCommand c : table) {
+            if ( c != null ) {
+                if ( c.getVerb().equalsIgnoreCase(verb) ) {
+                    found = true;
+                    room.removeCommand(c.getVerb());
+                } else {
+                    put(t, c);
+                }
+            }
+        }
+        if ( found ) {
+            size--;
+            table = t;
+        }
+    }
+
+    /**
+     * @param content What the player typed, starting with the command
+     * @return the command, or null if there isn't one by that name
+     */
+    public RoomCommand find(String content) {
+        return find(content, indexOfWhitespace(content, 0));
+    }
+
+    /**
+     * @return number of registered commands
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Run the command the content starts with.
+     *
+     * @param userId Player that sent the command
+     * @param username Player's current name
+     * @param content What the player typed, starting with the command
+     * @param endpoint Endpoint to send replies through
+     * @param session Session the command arrived on
+     * @return false if there is no such command
+     */
+    public boolean dispatch(String userId, String username, String content, RoomEndpoint endpoint, Session session) {
+        int verbEnd = indexOfWhitespace(content, 0);
+        RoomCommand command = find(content, verbEnd);
+        if ( command == null ) {
+            Metrics.commands.inc(UNKNOWN);
+            return false;
+        }
+        Metrics.commands.inc(command.getVerb());
+
+        command.process(userId, username, content, argument(content, verbEnd), room, endpoint, session);
+        return true;
+    }
+
+    private RoomCommand find(String content, int length) {
+        RoomCommand[] t = table;
+        int mask = t.length - 1;
+        for (int i = hash(content, length) & mask; ; i = (i + 1) & mask) {
+            RoomCommand c = t[i];
+            if ( c == null ) {
+                return null;
+            }
+            String verb = c.getVerb();
+            if ( verb.length() == length && verb.regionMatches(true, 0, content, 0, length) ) {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * @return true if the command was added, false if it replaced another
+     */
+    private static boolean put(RoomCommand[] t, RoomCommand command) {
+        String verb = command.getVerb();
+        int mask = t.length - 1;
+        for (int i = hash(verb, verb.length()) & mask; ; i = (i + 1) & mask) {
+            RoomCommand c = t[i];
+            if ( c == null ) {
+                t[i] = command;
+                return true;
+            }
+            if ( c.getVerb().equalsIgnoreCase(verb) ) {
+                t[i] = command;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Case-insensitive hash of the first {@code length} characters
+     */
+    static int hash(String s, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if ( c < 0x80 ) {
+                if ( c >= 'A' && c <= 'Z' ) {
+                    c += 'a' - 'A';
+                }
+            } else {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int indexOfWhitespace(String s, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if ( Character.isWhitespace(s.charAt(i)) ) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    /**
+     * @return what follows the verb, trimmed, or null
+     */
+    static String argument(String content, int verbEnd) {
+        int start = verbEnd;
+        int end = content.length();
+        while ( start < end && Character.isWhitespace(content.charAt(start)) ) {
+            start++;
+        }
+        while ( end > start && Character.isWhitespace(content.charAt(end - 1)) ) {
+            end--;
+        }
+        return start == end ? null : content.substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CommandRegistry[");
+        for (RoomCommand c : table) {
+            if ( c != null ) {
+                sb.append(' ').append(c.getVerb());
+            }
+        }
+        return sb.append(" ]").toString();
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.command;
+
+import java.util.Locale;
+
+import javax.websocket.Session;
+
+import org.gameontext.sample.RoomDescription;
+import org.gameontext.sample.RoomImplementation;
+import org.gameontext.sample.protocol.Message;
+import org.gameontext.sample.protocol.RoomEndpoint;
+
+/**
+ * {@code /go <direction>}: leave the room.
+ * <p>
+ * The map service decides where each exit leads: the room only says whether
+ * the player may leave in that direction.
+ * </p>
+ */
+public class GoCommand implements RoomCommand {
+
+    @Override
+    public String getVerb() {
+        return "/go";
+    }
+
+    @Override
+    public void process(String userId, String username, String content, String argument,
+            RoomDescription room, RoomEndpoint endpoint, Session session) {
+        // See RoomCommandsTest#testHandle*Go*
+        // Always process the /go command.
+        String direction = argument == null ? null : argument.toLowerCase(Locale.ENGLISH);
+        String exitId = getExitId(direction);
+
+        if ( exitId == null ) {
+            // Send error only to source session
+            if ( direction == null ) {
+                endpoint.sendMessage(session,
+                        Message.createSpecificEvent(userId, RoomImplementation.UNSPECIFIED_DIRECTION));
+            } else {
+                endpoint.sendMessage(session,
+                        Message.createSpecificEvent(userId, String.format(RoomImplementation.UNKNOWN_DIRECTION, direction)));
+            }
+        } else {
+            // Allow the exit
+            endpoint.sendMessage(session,
+                    Message.createExitMessage(userId, exitId, String.format(RoomImplementation.GO_FORTH, prettyDirection(exitId))));
+        }
+    }
+
+    /**
+     * Given a lower case string describing the direction someone wants
+     * to go (/go N, or /go North), filter or transform that into a recognizable
+     * id that can be used as an index into a known list of exits. Always valid
+     * are n, s, e, w. If the string doesn't match a known exit direction,
+     * return null.
+     *
+     * @param lowerDirection String read from the provided message
+     * @return exit id or null
+     */
+    protected String getExitId(String lowerDirection) {
+        if (lowerDirection == null) {
+            return null;
+        }
+
+        switch(lowerDirection) {
+            case "north" :
+            case "south" :
+            case "east" :
+            case "west" :
+                return lowerDirection.substring(0,1);
+
+            case "n" :
+            case "s" :
+            case "e" :
+            case "w" :
+                // Assume N/S/E/W are managed by the map service.
+                return lowerDirection;
+
+            default  :
+                // Otherwise unknown direction
+                return null;
+        }
+    }
+
+    /**
+     * From the direction we used as a key
+     * @param exitId The exitId in lower case
+     * @return A pretty version of the direction for use in the exit message.
+     */
+    protected String prettyDirection(String exitId) {
+        switch(exitId) {
+            case "n" : return "North";
+            case "s" : return "South";
+            case "e" : return "East";
+            case "w" : return "West";
+
+            default  : return exitId;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.command;
+
+import java.util.Locale;
+
+import javax.websocket.Session;
+
+import org.gameontext.sample.RoomDescription;
+import org.gameontext.sample.RoomImplementation;
+import org.gameontext.sample.protocol.Message;
+import org.gameontext.sample.protocol.RoomEndpoint;
+
+/**
+ * {@code /look} or {@code /look <thing>}: describe the room, or something in it.
+ */
+public class LookCommand implements RoomCommand {
+
+    @Override
+    public String getVerb() {
+        return "/look";
+    }
+
+    @Override
+    public void process(String userId, String username, String content, String argument,
+            RoomDescription room, RoomEndpoint endpoint, Session session) {
+        // See RoomCommandsTest#testHandle*Look*
+        if ( argument == null || argument.toLowerCase(Locale.ENGLISH).contains("room") ) {
+            // This is looking at or examining the entire room. Send the player location message,
+            // which includes the room description and inventory
+            endpoint.sendMessage(session, Message.createLocationMessage(userId, room));
+        } else {
+            endpoint.sendMessage(session,
+                    Message.createSpecificEvent(userId, RoomImplementation.LOOK_UNKNOWN));
+        }
+    }
+}
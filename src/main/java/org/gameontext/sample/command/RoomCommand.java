@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.command;
+
+import javax.websocket.Session;
+
+import org.gameontext.sample.RoomDescription;
+import org.gameontext.sample.protocol.RoomEndpoint;
+
+/**
+ * A command players can type in the room, like {@code /go N}.
+ * <p>
+ * Implementations are discovered by CDI and registered with the
+ * {@link CommandRegistry} when the room starts. Commands with a description
+ * are listed in the room's location message; the ones every room understands
+ * (like {@code /go} and {@code /look}) don't need to be.
+ * </p>
+ */
+public interface RoomCommand {
+
+    /**
+     * @return the command, including the leading slash: {@code /go}.
+     *      Players can type it in any case.
+     */
+    String getVerb();
+
+    /**
+     * @return what the command does, for the location message, or null if
+     *      the command shouldn't be listed
+     */
+    default String getDescription() {
+        return null;
+    }
+
+    /**
+     * @param userId Player that sent the command
+     * @param username Player's current name
+     * @param content Everything the player typed, as typed
+     * @param argument What followed the command, trimmed but otherwise as typed,
+     *      or null if there was nothing
+     * @param room Room description
+     * @param endpoint Endpoint to send replies through
+     * @param session Session the command arrived on
+     */
+    void process(String userId, String username, String content, String argument,
+            RoomDescription room, RoomEndpoint endpoint, Session session);
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.command;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+import javax.inject.Inject;
+import javax.websocket.Session;
+
+import org.gameontext.sample.Log;
+import org.gameontext.sample.RoomDescription;
+import org.gameontext.sample.RoomImplementation;
+import org.gameontext.sample.protocol.Message;
+import org.gameontext.sample.protocol.RoomEndpoint;
+import org.gameontext.sample.weather.CircuitOpenException;
+import org.gameontext.sample.weather.WeatherClient;
+import org.gameontext.sample.weather.WeatherException;
+import org.gameontext.sample.weather.WeatherObservation;
+
+/**
+ * {@code /weatherLike <zipcode>}: this room's custom command.
+ */
+public class WeatherCommand implements RoomCommand {
+
+    @Inject
+    protected WeatherClient weatherClient;
+
+    public WeatherCommand() {}
+
+    /**
+     * @param weatherClient Client for the weather service
+     */
+    public WeatherCommand(WeatherClient weatherClient) {
+        this.weatherClient = weatherClient;
+    }
+
+    @Override
+    public String getVerb() {
+        return "/weatherLike";
+    }
+
+    @Override
+    public String getDescription() {
+        return "What's the weather like at <zipcode>";
+    }
+
+    @Override
+    public void process(String userId, String username, String content, String argument,
+            RoomDescription room, RoomEndpoint endpoint, Session session) {
+        endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username, userId, "The instruments hum and the lights fade in and out.  \n\n"));
+
+        if ( argument == null ) {
+            endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username, userId, "You concentrate really, really hard.\n\nYou quietly look around and glance at the instrument panel and read:\n\n `It's room temperature.  Try typing a zip code with the command.`"));
+
+        } else {
+            //Need to pre-process the argument to ensure
+            //   a) there are 5 characters
+            //   b) the characters are numbers.  Won't validate the numbers are a valid zipcode.  We're not gurus.
+            if (argument.length() < 5) {
+               //message that we need 5 characters for a valid zip
+               endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username + ": " + argument, userId, "Suddenly you hear a loud **_CLANK!_**  You look at the instrument panel and read:\n\n `Whoopsie!  You need at least 5 digits for a valid zip code.  Try again.`  "));
+            }
+            else {
+               // There are 5 characters, are they numbers?
+               try
+               {
+                // the String to int conversion happens here
+                Integer.parseInt(argument);
+                // Conversion worked, let's get the zipCode as string
+                weatherGet(argument.substring(0,5), endpoint, session, userId, username);
+               }
+               catch (NumberFormatException nfe)
+               {
+                // If we get here, the conversion failed!  It wasn't a numeric value so print a message
+                // This doesn't mean it is a valid zip code, just means there were non-numeric characters entered.
+                endpoint.sendMessage(session, Message.createBroadcastEvent("What's the weatherLike? " + username + ": " + argument, userId, "Suddenly you hear a loud **_KER-THUNK!_**  You look at the instrument panel and read:\n\n `Are you trying to choke me?  You need 5 NUMBERS for a valid zip code.  I'm not that smart.  Try again.`  "));
+
+               }
+            }
+        }
+    }
+
+    /**
+     * Ask the weather service about the zip code. The lookup happens on another
+     * thread: the reply is sent to the room whenever the instruments settle.
+     */
+    protected void weatherGet(String zipC, RoomEndpoint endpoint, Session session, String userId, String username) {
+        String title = "What's the weatherLike? " + username + ": " + zipC;
+
+        CompletableFuture<WeatherObservation> lookup = weatherClient.lookup(zipC);
+        if ( !lookup.isDone() ) {
+            endpoint.sendMessage(session, Message.createBroadcastEvent(title, userId, RoomImplementation.STILL_CHECKING));
+        }
+
+        lookup.whenComplete((observation, t) -> {
+            if ( t == null ) {
+                endpoint.sendMessage(session, Message.createBroadcastEvent(title, userId, "Suddenly you hear a loud **_WHOOSH!_** followed by a familar **_TADA!_**  You look at the instrument panel and read: \n\n`The weather condition in` " + zipC + " `is:`\n\n" + observation.getReport()));
+                return;
+            }
+
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            if ( cause instanceof WeatherException ) {
+                //No code here to handle every error condition.  Just display the error message.
+                WeatherException we = (WeatherException) cause;
+                endpoint.sendMessage(session, Message.createBroadcastEvent(title, userId, "Suddenly you hear a loud **_KLAXON HORN_** followed by a familar **'Danger, Will Robinson! Danger!'**.  You look at the instrument panel and read: \n\n`Attempted to find the Current Weather conditions for " + zipC + " but instead received this HTTP response code:` \n\n " + we.getResponseCode() + " " + we.getResponseMessage()));
+            } else if ( cause instanceof CircuitOpenException ) {
+                // The weather service has been failing: don't keep the player waiting on it
+                endpoint.sendMessage(session, Message.createBroadcastEvent(title, userId, RoomImplementation.INSTRUMENTS_DOWN));
+            } else if ( cause instanceof RejectedExecutionException ) {
+                endpoint.sendMessage(session, Message.createBroadcastEvent(title, userId, RoomImplementation.INSTRUMENTS_BUSY));
+            } else {
+                Log.log(Level.FINE, this, "Weather lookup for " + zipC + " failed", cause);
+                endpoint.sendMessage(session, Message.createBroadcastEvent(title, userId, RoomImplementation.INSTRUMENTS_SILENT));
+            }
+        });
+    }
+}
@@ -15,22 +15,35 @@
  *******************************************************************************/
 package org.gameontext.sample.map.client;
 
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.ResponseProcessingException;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.gameontext.sample.Log;
 import org.gameontext.sample.RoomDescription;
+import org.gameontext.sample.StartupTimings;
+import org.gameontext.sample.metrics.Metrics;
 
 /**
  * A wrapped/encapsulation of outbound REST requests to the map service.
@@ -40,6 +53,21 @@ import org.gameontext.sample.RoomDescription;
  * to JNDI values.
  * </p>
  * <p>
+ * Room data is fetched in the background: the room starts with its built-in
+ * description, which is replaced when the map service answers. The data is
+ * then refreshed every MAP_REFRESH seconds using conditional requests
+ * (If-None-Match with the last ETag), so an unchanged registration costs a
+ * 304. The last good response is kept, and the room description is only
+ * updated when the data actually changes.
+ * </p>
+ * <p>
+ * Each request has connect and receive timeouts. Requests that fail in a way
+ * that may be transient (no connection, a timeout, a 5xx response) are
+ * retried in the background according to the {@link RetryPolicy}: with
+ * jittered exponential backoff, until a total deadline. If that passes, the
+ * next scheduled refresh tries again.
+ * </p>
+ * <p>
  * CDI will create this (the {@code MapClient} as an application scoped bean.
  * This bean will be created when the application starts, and can be injected
  * into other CDI-managed beans for as long as the application is valid.
@@ -52,21 +80,78 @@ public class MapClient {
 
     public static final String DEFAULT_MAP_URL = "https://game-on.org/map/v1/sites";
 
+    /** Name of the map service in metrics */
+    static final String SERVICE = "map";
+
+    /** Default seconds between refreshes of the room's map data */
+    static final long DEFAULT_REFRESH = 300;
+
+    /** Milliseconds allowed to connect to the map service */
+    static final long CONNECT_TIMEOUT = 5000;
+
+    /** Milliseconds allowed to wait for the map service's response */
+    static final long RECEIVE_TIMEOUT = 10000;
+
+    /** Retry failed requests for room data for up to two minutes */
+    static final RetryPolicy DEFAULT_RETRY = new RetryPolicy(500, 30000, 120000, TimeUnit.MILLISECONDS);
+
     /**
      * The URL for the target map service.
      * This is set via the environment variable MAP_URL. This value is read
      * in server.xml.
      */
     @Resource(lookup = "mapUrl")
-    private String mapLocation;
+    protected String mapLocation;
+
+    /**
+     * Seconds between refreshes of the room's map data.
+     * This is set via the environment variable MAP_REFRESH. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "mapRefresh")
+    protected String mapRefresh;
+
+    /**
+     * Scheduler provided by the container (concurrent-1.0 feature).
+     */
+    @Resource
+    protected ManagedScheduledExecutorService managedScheduler;
+
+    private ScheduledExecutorService ownScheduler = null;
+    private ScheduledFuture<?> refreshTask = null;
+    private long refreshSeconds = DEFAULT_REFRESH;
+
+    /** Last good response, and the ETag it came with */
+    private volatile MapData cached = null;
+    private volatile String etag = null;
+    private volatile String cachedSiteId = null;
+
+    /** Data last applied to the room description */
+    private volatile MapData applied = null;
+
+    /** When the map service last answered (200 or 304), or 0 */
+    private volatile long lastRefresh = 0;
+
+    RetryPolicy retryPolicy = DEFAULT_RETRY;
+
+    /** True while a refresh (and its retries) is in progress */
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder giveUps = new LongAdder();
 
     /**
      * The root target used to define the root path and common query parameters
-     * for all outbound requests to the concierge service.
+     * for all outbound requests to the concierge service. Built when the
+     * first request is made (on the refresh thread), rather than at startup.
      *
      * @see WebTarget
      */
-    private WebTarget queryRoot;
+    private volatile WebTarget queryRoot;
+
+    /** Why the client couldn't be built, or null */
+    private volatile Exception clientError = null;
 
     /**
      * The {@code @PostConstruct} annotation indicates that this method should
@@ -85,56 +170,285 @@ public class MapClient {
                 mapLocation = DEFAULT_MAP_URL;
             }
 
-            Client queryClient = ClientBuilder.newBuilder()
-                    .property("com.ibm.ws.jaxrs.client.ssl.config", "DefaultSSLSettings")
-                    .property("com.ibm.ws.jaxrs.client.disableCNCheck", true)
-                    .build();
-
-            queryClient.register(MapResponseReader.class);
-
-            // create the jax-rs 2.0 client
-            this.queryRoot = queryClient.target(mapLocation);
+            if ( mapRefresh != null && !mapRefresh.contains("MAP_REFRESH") ) {
+                try {
+                    refreshSeconds = Math.max(1, Long.parseLong(mapRefresh.trim()));
+                } catch (NumberFormatException e) {
+                    Log.log(Level.WARNING, this, "Ignoring invalid value for MAP_REFRESH: {0}", mapRefresh);
+                }
+            }
 
             MapClientLog.log(Level.INFO, this, "Map client initialized. Map URL set to {0}", mapLocation);
         } catch ( Exception ex ) {
+            clientError = ex;
             Log.log(Level.SEVERE, this, "Unable to initialize map service", ex);
         }
     }
 
+    /**
+     * @return the root target, creating the jax-rs 2.0 client on first use
+     * @throws IllegalStateException if the client can't be created
+     */
+    private WebTarget queryRoot() {
+        WebTarget root = queryRoot;
+        if ( root == null ) {
+            synchronized (this) {
+                root = queryRoot;
+                if ( root == null ) {
+                    if ( clientError != null ) {
+                        throw new IllegalStateException("Unable to initialize map service", clientError);
+                    }
+                    try {
+                        Client queryClient = ClientBuilder.newBuilder()
+                                .property("com.ibm.ws.jaxrs.client.ssl.config", "DefaultSSLSettings")
+                                .property("com.ibm.ws.jaxrs.client.disableCNCheck", true)
+                                .property("com.ibm.ws.jaxrs.client.connection.timeout", CONNECT_TIMEOUT)
+                                .property("com.ibm.ws.jaxrs.client.receive.timeout", RECEIVE_TIMEOUT)
+                                .build();
+
+                        queryClient.register(MapResponseReader.class);
+
+                        root = queryRoot = queryClient.target(mapLocation);
+                    } catch ( RuntimeException ex ) {
+                        clientError = ex;
+                        Log.log(Level.SEVERE, this, "Unable to initialize map service", ex);
+                        throw new IllegalStateException("Unable to initialize map service", ex);
+                    }
+                }
+            }
+        }
+        return root;
+    }
+
     public boolean ok() {
-        return queryRoot != null;
+        return clientError == null;
+    }
+
+    @PreDestroy
+    public void destroyClient() {
+        synchronized (this) {
+            if ( refreshTask != null ) {
+                refreshTask.cancel(false);
+                refreshTask = null;
+            }
+            if ( ownScheduler != null ) {
+                ownScheduler.shutdownNow();
+                ownScheduler = null;
+            }
+        }
     }
 
-    public void updateRoom(String roomId, RoomDescription roomDescription) {
-        MapData data = getMapData(roomId);
-        if ( data != null ) {
-            roomDescription.updateData(data);
+    /**
+     * Fetch the room's data from the map service in the background, and keep
+     * it up to date. Returns immediately: the room keeps its current
+     * description until the map service answers.
+     *
+     * @param roomId Id of the room's registration
+     * @param roomDescription Description to update
+     */
+    public synchronized void updateRoom(String roomId, RoomDescription roomDescription) {
+        if ( refreshTask != null ) {
+            refreshTask.cancel(false);
         }
+        refreshTask = getScheduler().scheduleWithFixedDelay(() -> refresh(roomId, roomDescription),
+                0, refreshSeconds, TimeUnit.SECONDS);
     }
 
+    /**
+     * Fetch the room's data, retrying until the policy gives up, and update
+     * the room description if it changed. Does nothing if a refresh is
+     * already in progress. Never throws: an exception would cancel the
+     * scheduled refresh.
+     */
+    void refresh(String roomId, RoomDescription roomDescription) {
+        if ( refreshing.compareAndSet(false, true) ) {
+            attempt(roomId, roomDescription, 1, System.nanoTime());
+        }
+    }
+
+    private void attempt(String roomId, RoomDescription roomDescription, int attempt, long start) {
+        boolean done = true;
+        try {
+            MapData data = fetch(roomId);
+            if ( data != null && !data.equals(applied) ) {
+                roomDescription.updateData(data);
+                applied = data;
+                StartupTimings.reached(StartupTimings.Milestone.mapData);
+                MapClientLog.log(Level.INFO, this, "Room description updated from the map service: {0}", data);
+            }
+        } catch (IOException e) {
+            long delay = retryPolicy.nextDelay(attempt, System.nanoTime() - start);
+            if ( delay < 0 ) {
+                giveUps.increment();
+                Log.log(Level.WARNING, this, "Unable to fetch map data for {0} after {1} attempts, will try again in {2}s: {3}",
+                        roomId, attempt, refreshSeconds, e.getMessage());
+            } else {
+                MapClientLog.log(Level.FINE, this, "Map data request {0} for {1} failed, retrying in {2}ms: {3}",
+                        attempt, roomId, TimeUnit.NANOSECONDS.toMillis(delay), e.getMessage());
+                getScheduler().schedule(() -> attempt(roomId, roomDescription, attempt + 1, start),
+                        delay, TimeUnit.NANOSECONDS);
+                done = false;
+            }
+        } catch (RuntimeException e) {
+            Log.log(Level.WARNING, this, "Unable to refresh map data for " + roomId, e);
+        } finally {
+            if ( done ) {
+                refreshing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Make a single request for the site's data.
+     *
+     * @param siteId Id of the room's registration
+     * @return the site's data: fetched if it has changed since the last
+     *      request, otherwise the last good response. Null if the map service
+     *      has never answered.
+     */
     public MapData getMapData(String siteId) {
-        WebTarget target = this.queryRoot.path(siteId);
+        try {
+            return fetch(siteId);
+        } catch (IOException e) {
+            // Sadly, badness happened while trying to get the endpoints: use what we had
+            return siteId.equals(cachedSiteId) ? cached : null;
+        }
+    }
+
+    /**
+     * @return the site's data (see {@link #getMapData(String)}), or null if the
+     *      map service doesn't know about it
+     * @throws IOException if the request failed in a way that may be transient
+     */
+    private MapData fetch(String siteId) throws IOException {
+        WebTarget target = queryRoot().path(siteId);
         MapClientLog.log(Level.FINER, this, "making request to {0} for room", target.getUri().toString());
+
+        // Only send the ETag back for the registration it belongs to
+        MapData last = siteId.equals(cachedSiteId) ? cached : null;
+        String lastTag = last == null ? null : etag;
+
+        attempts.increment();
+        long start = System.nanoTime();
+        boolean failed = true;
         Response r = null;
         try {
-            r = target.request(MediaType.APPLICATION_JSON).get();
+            Invocation.Builder request = target.request(MediaType.APPLICATION_JSON);
+            if ( lastTag != null ) {
+                request.header(HttpHeaders.IF_NONE_MATCH, lastTag);
+            }
+            r = request.get();
+
+            int status = r.getStatus();
+            if ( status == Response.Status.NOT_MODIFIED.getStatusCode() && last != null ) {
+                MapClientLog.log(Level.FINEST, this, "Map data for {0} not modified", siteId);
+                successes.increment();
+                failed = false;
+                lastRefresh = System.currentTimeMillis();
+                return last;
+            }
             if (r.getStatusInfo().getFamily().equals(Response.Status.Family.SUCCESSFUL)) {
                 MapData data = r.readEntity(MapData.class);
+                successes.increment();
+                failed = false;
+                cacheResponse(siteId, data, r.getHeaderString(HttpHeaders.ETAG));
                 return data;
             }
-            return null;
+
+            MapClientLog.log(Level.FINER, this, "Unexpected response fetching room uri: {0} resp code: {1}",
+                    target.getUri().toString(), status);
+            if ( status >= 500 || status == 408 || status == 429 ) {
+                throw new IOException("Map service responded with " + status);
+            }
+            // Not something trying again will fix
+            return last;
         } catch (ResponseProcessingException rpe) {
             Response response = rpe.getResponse();
             MapClientLog.log(Level.FINER, this, "Exception fetching room list uri: {0} resp code: {1} ",
                     target.getUri().toString(),
                     response.getStatusInfo().getStatusCode() + " " + response.getStatusInfo().getReasonPhrase());
             MapClientLog.log(Level.FINEST, this, "Exception fetching room list", rpe);
+            throw new IOException(rpe);
         } catch (ProcessingException e) {
             MapClientLog.log(Level.FINEST, this, "Exception fetching room list (" + target.getUri().toString() + ")", e);
+            throw new IOException(e);
         } catch (WebApplicationException ex) {
             MapClientLog.log(Level.FINEST, this, "Exception fetching room list (" + target.getUri().toString() + ")", ex);
+            throw new IOException(ex);
+        } finally {
+            if ( r != null ) {
+                r.close();
+            }
+            Metrics.upstreamLatency.observe(SERVICE, System.nanoTime() - start);
+            if ( failed ) {
+                Metrics.upstreamErrors.inc(SERVICE);
+            }
+        }
+    }
+
+    /**
+     * @return requests made to the map service for room data
+     */
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    /**
+     * @return requests for room data the map service answered (200 or 304)
+     */
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    /**
+     * @return refreshes that gave up retrying before the map service answered
+     */
+    public long getGiveUps() {
+        return giveUps.sum();
+    }
+
+    /**
+     * @return when the map service last answered a request for room data
+     *      (in milliseconds since the epoch), or 0 if it hasn't
+     */
+    public long getLastRefresh() {
+        return lastRefresh;
+    }
+
+    /**
+     * @return true if room data is being fetched from the map service
+     *      (the room has an id registered with the map)
+     */
+    public synchronized boolean isUpdating() {
+        return refreshTask != null;
+    }
+
+    /**
+     * @return seconds between refreshes of the room's map data
+     */
+    public long getRefreshInterval() {
+        return refreshSeconds;
+    }
+
+    private synchronized void cacheResponse(String siteId, MapData data, String tag) {
+        cachedSiteId = siteId;
+        cached = data;
+        etag = tag;
+        lastRefresh = System.currentTimeMillis();
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if ( managedScheduler != null ) {
+            return managedScheduler;
+        }
+        // Outside of the container (unit tests), there is no managed scheduler
+        if ( ownScheduler == null ) {
+            ownScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "map-refresh");
+                t.setDaemon(true);
+                return t;
+            });
         }
-        // Sadly, badness happened while trying to get the endpoints
-        return null;
+        return ownScheduler;
     }
-}
\ No newline at end of file
+}
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.gameontext.sample.map.client;
 
+import java.util.Objects;
+
 public class MapData {
 
     private String name;
@@ -42,4 +44,28 @@ public class MapData {
     public void setDescription(String description) {
         this.description = description;
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, fullName, description);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if ( this == obj ) {
+            return true;
+        }
+        if ( !(obj instanceof MapData) ) {
+            return false;
+        }
+        MapData other = (MapData) obj;
+        return Objects.equals(name, other.name)
+                && Objects.equals(fullName, other.fullName)
+                && Objects.equals(description, other.description);
+    }
+
+    @Override
+    public String toString() {
+        return "MapData[name=" + name + ", fullName=" + fullName + "]";
+    }
 }
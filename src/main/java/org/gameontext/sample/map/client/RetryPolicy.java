@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.map.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * How long to wait before trying a failed request again.
+ * <p>
+ * The backoff doubles with each attempt, up to a maximum, and is jittered
+ * (a random delay between half and all of the backoff) so that rooms
+ * restarted together don't retry in lockstep. Once the total deadline has
+ * passed, or the next attempt would start after it, there are no more
+ * retries.
+ * </p>
+ */
+public class RetryPolicy {
+
+    private final long initialNanos;
+    private final long maxNanos;
+    private final long deadlineNanos;
+    private final LongUnaryOperator random;
+
+    /**
+     * @param initial Backoff before the first retry
+     * @param max Longest backoff between attempts
+     * @param deadline Time allowed for all attempts, from the start of the first
+     * @param unit Unit for initial, max and deadline
+     */
+    public RetryPolicy(long initial, long max, long deadline, TimeUnit unit) {
+        this(initial, max, deadline, unit, bound -> ThreadLocalRandom.current().nextLong(bound));
+    }
+
+    /**
+     * @param random Returns a random value between 0 (inclusive) and its argument (exclusive)
+     */
+    RetryPolicy(long initial, long max, long deadline, TimeUnit unit, LongUnaryOperator random) {
+        this.initialNanos = Math.max(1, unit.toNanos(initial));
+        this.maxNanos = Math.max(initialNanos, unit.toNanos(max));
+        this.deadlineNanos = unit.toNanos(deadline);
+        this.random = random;
+    }
+
+    /**
+     * @param attempt Number of attempts that have failed so far (1 after the first)
+     * @param elapsed Nanoseconds since the first attempt started
+     * @return nanoseconds to wait before the next attempt, or -1 to give up
+     */
+    public long nextDelay(int attempt, long elapsed) {
+        long remaining = deadlineNanos - elapsed;
+        if ( attempt < 1 || remaining <= 0 ) {
+            return -1;
+        }
+
+        // initial * 2^(attempt-1), without overflowing
+        int shift = Math.min(attempt - 1, 62);
+        long backoff = initialNanos > (maxNanos >> shift) ? maxNanos : Math.min(maxNanos, initialNanos << shift);
+
+        long half = backoff / 2;
+        long delay = half + random.applyAsLong(backoff - half + 1);
+        return delay < remaining ? delay : -1;
+    }
+
+    /**
+     * @return time allowed for all attempts, in nanoseconds
+     */
+    public long getDeadline() {
+        return deadlineNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy[initial=" + TimeUnit.NANOSECONDS.toMillis(initialNanos)
+                + "ms, max=" + TimeUnit.NANOSECONDS.toMillis(maxNanos)
+                + "ms, deadline=" + TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + "ms]";
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, optionally split by the value of one label.
+ * <p>
+ * Each series is a {@link LongAdder}, so threads incrementing the same
+ * count don't contend. Label values should come from a small, fixed set
+ * (targets, verbs, service names): never from what players type.
+ * </p>
+ */
+public class Counter implements Metric {
+
+    private final String name;
+    private final String help;
+    private final String label;
+    private final LongAdder unlabeled = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> series = new ConcurrentHashMap<>();
+
+    /**
+     * @param name Metric name, ending in _total
+     * @param help Description
+     * @param label Name of the label, or null for a single series
+     */
+    public Counter(String name, String help, String label) {
+        this.name = name;
+        this.help = help;
+        this.label = label;
+    }
+
+    public void inc() {
+        unlabeled.increment();
+    }
+
+    /**
+     * @param value Label value
+     */
+    public void inc(String value) {
+        LongAdder adder = series.get(value);
+        if ( adder == null ) {
+            adder = series.computeIfAbsent(value, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    /**
+     * @return the count (for a counter without a label)
+     */
+    public long get() {
+        return unlabeled.sum();
+    }
+
+    /**
+     * @param value Label value
+     * @return the count for the label value
+     */
+    public long get(String value) {
+        LongAdder adder = series.get(value);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    @Override
+    public void writeTo(PrometheusWriter out) throws IOException {
+        out.header(name, help, "counter");
+        if ( label == null ) {
+            out.sample(name, null, null, unlabeled.sum());
+        } else {
+            for (Map.Entry<String, LongAdder> e : series.entrySet()) {
+                out.sample(name, label, e.getKey(), e.getValue().sum());
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies, counted in fixed buckets, optionally split by the value of
+ * one label.
+ * <p>
+ * Observations are in nanoseconds, and are reported in seconds. Each
+ * bucket is a {@link LongAdder}: recording an observation is a short scan
+ * of the bucket bounds and two uncontended increments. Buckets are made
+ * cumulative when they are written.
+ * </p>
+ */
+public class Histogram implements Metric {
+
+    /** Upper bounds of the buckets, in seconds */
+    static final double[] BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    private static final long[] BOUNDS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BOUNDS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final String name;
+    private final String help;
+    private final String label;
+    private final Series unlabeled = new Series();
+    private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<>();
+
+    /**
+     * @param name Metric name, ending in _seconds
+     * @param help Description
+     * @param label Name of the label, or null for a single series
+     */
+    public Histogram(String name, String help, String label) {
+        this.name = name;
+        this.help = help;
+        this.label = label;
+    }
+
+    /**
+     * @param nanos Observed latency, in nanoseconds
+     */
+    public void observe(long nanos) {
+        unlabeled.observe(nanos);
+    }
+
+    /**
+     * @param value Label value
+     * @param nanos Observed latency, in nanoseconds
+     */
+    public void observe(String value, long nanos) {
+        Series s = series.get(value);
+        if ( s == null ) {
+            s = series.computeIfAbsent(value, k -> new Series());
+        }
+        s.observe(nanos);
+    }
+
+    /**
+     * @return number of observations (for a histogram without a label)
+     */
+    public long getCount() {
+        return unlabeled.count();
+    }
+
+    /**
+     * @param value Label value
+     * @return number of observations for the label value
+     */
+    public long getCount(String value) {
+        Series s = series.get(value);
+        return s == null ? 0 : s.count();
+    }
+
+    @Override
+    public void writeTo(PrometheusWriter out) throws IOException {
+        out.header(name, help, "histogram");
+        if ( label == null ) {
+            unlabeled.writeTo(out, name, null, null);
+        } else {
+            for (Map.Entry<String, Series> e : series.entrySet()) {
+                e.getValue().writeTo(out, name, label, e.getKey());
+            }
+        }
+    }
+
+    static class Series {
+        /** One more than the buckets: the last is +Inf */
+        final LongAdder[] counts = new LongAdder[BOUNDS.length + 1];
+        final LongAdder sum = new LongAdder();
+
+        Series() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void observe(long nanos) {
+            int i = 0;
+            while ( i < BOUNDS.length && nanos > BOUNDS[i] ) {
+                i++;
+            }
+            counts[i].increment();
+            sum.add(nanos);
+        }
+
+        long count() {
+            long n = 0;
+            for (LongAdder c : counts) {
+                n += c.sum();
+            }
+            return n;
+        }
+
+        void writeTo(PrometheusWriter out, String name, String label, String value) throws IOException {
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i].sum();
+                String le = i < BUCKETS.length ? PrometheusWriter.format(BUCKETS[i]) : "+Inf";
+                out.bucket(name, label, value, le, cumulative);
+            }
+            out.sample(name + "_sum", label, value, sum.sum() / 1e9);
+            out.sample(name + "_count", label, value, cumulative);
+        }
+    }
+}
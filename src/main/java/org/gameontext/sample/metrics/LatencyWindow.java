@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Recent latencies, for percentiles over (roughly) the last minute.
+ * <p>
+ * The window is a ring of slots, each covering a fixed period; a slot is
+ * cleared when it is reused for a new period. Within a slot, latencies are
+ * counted in log-linear buckets (four per power of two nanoseconds), so a
+ * percentile is accurate to within 25%. Recording is lock-free: a sample
+ * racing with a slot being cleared may be lost, which doesn't matter for
+ * a health check.
+ * </p>
+ */
+public class LatencyWindow {
+
+    /** Buckets per power of two */
+    private static final int SUB_BUCKETS = 4;
+
+    /** Powers of two of nanoseconds covered: up to 2^48ns (~3 days) */
+    private static final int POWERS = 48;
+
+    private static final int BUCKETS = POWERS * SUB_BUCKETS;
+
+    private final int slots;
+    private final long slotNanos;
+    private final LongSupplier clock;
+
+    /** Period each slot is counting, indexed by slot */
+    private final AtomicLongArray periods;
+
+    /** Counts, indexed by slot * BUCKETS + bucket */
+    private final AtomicLongArray counts;
+
+    /**
+     * @param window Length of the window
+     * @param slots Number of slots the window is divided into
+     * @param unit Unit for window
+     */
+    public LatencyWindow(long window, int slots, TimeUnit unit) {
+        this(window, slots, unit, System::nanoTime);
+    }
+
+    LatencyWindow(long window, int slots, TimeUnit unit, LongSupplier clock) {
+        this.slots = slots;
+        this.slotNanos = Math.max(1, unit.toNanos(window) / slots);
+        this.clock = clock;
+        this.periods = new AtomicLongArray(slots);
+        this.counts = new AtomicLongArray(slots * BUCKETS);
+        for (int i = 0; i < slots; i++) {
+            periods.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * @param nanos Observed latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        long period = Math.floorDiv(clock.getAsLong(), slotNanos);
+        int slot = (int) Math.floorMod(period, (long) slots);
+
+        long current = periods.get(slot);
+        if ( current != period && periods.compareAndSet(slot, current, period) ) {
+            int base = slot * BUCKETS;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(base + i, 0);
+            }
+        }
+        counts.incrementAndGet(slot * BUCKETS + bucket(nanos));
+    }
+
+    /**
+     * @param percentile Percentile, between 0 and 100
+     * @return the latency (in nanoseconds) that the given share of recent
+     *      observations were at or below, or -1 if there were none
+     */
+    public long getPercentile(double percentile) {
+        long[] merged = merge();
+        long total = 0;
+        for (long c : merged) {
+            total += c;
+        }
+        if ( total == 0 ) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += merged[i];
+            if ( seen >= Math.max(1, rank) ) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return number of recent observations
+     */
+    public long getCount() {
+        long total = 0;
+        for (long c : merge()) {
+            total += c;
+        }
+        return total;
+    }
+
+    private long[] merge() {
+        long oldest = Math.floorDiv(clock.getAsLong(), slotNanos) - slots + 1;
+        long[] merged = new long[BUCKETS];
+        for (int s = 0; s < slots; s++) {
+            if ( periods.get(s) >= oldest ) {
+                int base = s * BUCKETS;
+                for (int i = 0; i < BUCKETS; i++) {
+                    merged[i] += counts.get(base + i);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Bucket 4p + s counts latencies of (1 + s/4) * 2^p nanoseconds, up to
+     * (but not including) the next bucket's
+     */
+    static int bucket(long nanos) {
+        long n = Math.max(1, nanos);
+        int power = 63 - Long.numberOfLeadingZeros(n);
+        if ( power >= POWERS ) {
+            return BUCKETS - 1;
+        }
+        int sub = power < 2 ? (int) ((n << (2 - power)) & (SUB_BUCKETS - 1))
+                : (int) ((n >>> (power - 2)) & (SUB_BUCKETS - 1));
+        return power * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the (exclusive) upper bound of a bucket, in nanoseconds
+     */
+    static long upperBound(int bucket) {
+        int power = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        // (4 + sub + 1) * 2^power / 4 nanoseconds
+        return ((SUB_BUCKETS + sub + 1L) << power) / SUB_BUCKETS;
+    }
+}
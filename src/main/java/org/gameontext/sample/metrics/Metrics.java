@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The room's own metrics, recorded where things happen and served (with
+ * gauges read from the beans that keep them) by
+ * {@link org.gameontext.sample.MetricsEndpoint}.
+ * <p>
+ * Everything here is a static, lock-free counter: recording is cheap
+ * enough for the message handling path.
+ * </p>
+ */
+public class Metrics {
+
+    public static final Counter framesReceived = new Counter("room_frames_received_total",
+            "Inbound frames, by target", "target");
+
+    public static final Counter commands = new Counter("room_commands_total",
+            "Commands handled, by verb (unknown for commands the room doesn't have)", "verb");
+
+    public static final Histogram handleLatency = new Histogram("room_handle_seconds",
+            "Time taken to handle an inbound message, by target", "target");
+
+    /** handleMessage latency over the last minute, for the readiness check */
+    public static final LatencyWindow recentHandleLatency = new LatencyWindow(60, 6, TimeUnit.SECONDS);
+
+    public static final Histogram sendLatency = new Histogram("room_send_seconds",
+            "Time from queueing an outbound frame until the write completed", null);
+
+    public static final Gauge openSessions = new Gauge("room_sessions_open",
+            "Open WebSocket sessions");
+
+    public static final Counter codecErrors = new Counter("room_codec_errors_total",
+            "Frames that could not be decoded or encoded, by direction", "direction");
+
+    public static final Counter inboundShed = new Counter("room_inbound_shed_total",
+            "Inbound messages turned away because the player's mailbox was full", null);
+
+    public static final Histogram upstreamLatency = new Histogram("room_upstream_seconds",
+            "Time taken by requests to upstream services, by service", "service");
+
+    public static final Counter upstreamErrors = new Counter("room_upstream_errors_total",
+            "Failed requests to upstream services, by service", "service");
+
+    private static final Metric[] all = {
+            framesReceived, commands, handleLatency, sendLatency, openSessions,
+            codecErrors, inboundShed, upstreamLatency, upstreamErrors };
+
+    private Metrics() {}
+
+    /**
+     * Write all of the room's own metrics
+     * @param out Writer for the metrics response
+     * @throws IOException if the response can't be written
+     */
+    public static void writeTo(PrometheusWriter out) throws IOException {
+        for (Metric m : all) {
+            m.writeTo(out);
+        }
+    }
+}
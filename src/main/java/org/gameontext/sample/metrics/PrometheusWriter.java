@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4).
+ */
+public class PrometheusWriter {
+
+    /** Content type of the text format */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Writer out;
+
+    public PrometheusWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * @param name Metric name
+     * @param help Description
+     * @param type counter, gauge or histogram
+     */
+    public void header(String name, String help, String type) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * @param name Metric (or series) name
+     * @param label Label name, or null
+     * @param value Label value (ignored without a label name)
+     * @param sample Value
+     */
+    public void sample(String name, String label, String value, double sample) throws IOException {
+        out.append(name);
+        if ( label != null ) {
+            out.append('{').append(label).append("=\"");
+            escape(value);
+            out.append("\"}");
+        }
+        out.append(' ').append(format(sample)).append('\n');
+    }
+
+    /**
+     * A sample with two labels
+     */
+    public void sample(String name, String label1, String value1, String label2, String value2, double sample)
+            throws IOException {
+        out.append(name).append('{').append(label1).append("=\"");
+        escape(value1);
+        out.append("\",").append(label2).append("=\"");
+        escape(value2);
+        out.append("\"} ").append(format(sample)).append('\n');
+    }
+
+    /**
+     * A gauge, with its header
+     */
+    public void gauge(String name, String help, double value) throws IOException {
+        header(name, help, "gauge");
+        sample(name, null, null, value);
+    }
+
+    /**
+     * A counter that is kept elsewhere, with its header
+     */
+    public void counter(String name, String help, double value) throws IOException {
+        header(name, help, "counter");
+        sample(name, null, null, value);
+    }
+
+    void bucket(String name, String label, String value, String le, long count) throws IOException {
+        out.append(name).append("_bucket{");
+        if ( label != null ) {
+            out.append(label).append("=\"");
+            escape(value);
+            out.append("\",");
+        }
+        out.append("le=\"").append(le).append("\"} ").append(Long.toString(count)).append('\n');
+    }
+
+    static String format(double value) {
+        if ( value == (long) value ) {
+            return Long.toString((long) value);
+        }
+        // Not in scientific notation, for bucket bounds like 0.0005
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private void escape(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.websocket.DecodeException;
+
+import org.gameontext.sample.protocol.Message.Target;
+
+/**
+ * Compact binary wire format, used by sessions that negotiate protocol
+ * version {@value #VERSION} in their {@code roomHello} or {@code roomJoin}.
+ * <p>
+ * A frame starts with the version byte and the ordinal of the target,
+ * followed by the target id as a length-prefixed UTF-8 string, and then
+ * the payload object. Payload values are tagged:
+ * </p>
+ * <ul>
+ * <li>{@code null}, {@code false}, {@code true}: the tag alone</li>
+ * <li>integers (up to 18 digits): a zigzag varint</li>
+ * <li>other numbers: the number as length-prefixed text</li>
+ * <li>strings: length-prefixed UTF-8, the index of a word in {@link #WORDS},
+ *     or (for bookmarks) the index of a prefix followed by a varint</li>
+ * <li>objects: a key and value per attribute, ended by a 0 key. Keys are
+ *     either {@code (index << 1) | 1} for a word in {@link #WORDS}, or
+ *     {@code (length + 1) << 1} followed by the UTF-8 bytes of the key</li>
+ * <li>arrays: values, ended by {@link #ARRAY_END}</li>
+ * </ul>
+ * <p>
+ * The attribute names and values the protocol uses over and over again
+ * are a single byte, and nothing is escaped or quoted. Neither direction
+ * goes through JSON text: frames are written straight from the message's
+ * {@code JsonObject}, and read straight into one, picking up the sender
+ * attributes on the way. The text form of the payload is only created if
+ * something asks for it.
+ * </p>
+ */
+final class BinaryFrame {
+
+    /** Protocol version that uses this format, also the first byte of every frame */
+    static final int VERSION = 3;
+
+    static final byte NULL = 0x00;
+    static final byte FALSE = 0x01;
+    static final byte TRUE = 0x02;
+    static final byte INTEGER = 0x03;
+    static final byte DECIMAL = 0x04;
+    static final byte STRING = 0x05;
+    static final byte WORD = 0x06;
+    static final byte OBJECT = 0x07;
+    static final byte ARRAY = 0x08;
+    static final byte NUMBERED = 0x09;
+    static final byte ARRAY_END = 0x0A;
+
+    /**
+     * Attribute names and values that are sent as their index. Entries can
+     * only ever be added to the end of this list.
+     */
+    static final String[] WORDS = {
+        "type", Message.CONTENT, "bookmark", Message.USERNAME, Message.USER_ID,
+        "event", "chat", "location", "exit", "exitId",
+        "name", "fullName", "description", "exits", "commands",
+        "roomInventory", "version", "*", "room-",
+        "N", "S", "E", "W", "U", "D"
+    };
+
+    /** Strings that end in a number, sent as the index of the prefix and the number */
+    private static final String[] NUMBERED_PREFIXES = { "room-" };
+
+    /** Nesting allowed in a decoded payload */
+    private static final int MAX_DEPTH = 64;
+
+    private static final Map<String, Integer> WORD_INDEX = new HashMap<>();
+    static {
+        for (int i = 0; i < WORDS.length; i++) {
+            WORD_INDEX.put(WORDS[i], i);
+        }
+    }
+
+    private static final Target[] TARGETS = Target.values();
+
+    /** Creating a builder through {@link Json} looks up the provider every time */
+    private static final JsonBuilderFactory BUILDER_FACTORY = Json.createBuilderFactory(null);
+
+    private BinaryFrame() {}
+
+    /**
+     * @param message Message to encode
+     * @return the message in the binary format
+     * @throws JsonException if the message payload is not a JSON object
+     */
+    static byte[] encode(Message message) {
+        JsonObject payload = message.getParsedBody();
+        Output out = new Output(256);
+        out.write(VERSION);
+        out.write(message.getTarget().ordinal());
+        out.writeString(message.getTargetId());
+        writeObject(out, payload);
+        return out.toByteArray();
+    }
+
+    private static void writeObject(Output out, JsonObject object) {
+        out.write(OBJECT);
+        for (Map.Entry<String, JsonValue> e : object.entrySet()) {
+            writeKey(out, e.getKey());
+            writeValue(out, e.getValue());
+        }
+        out.writeVarint(0);
+    }
+
+    private static void writeValue(Output out, JsonValue value) {
+        switch(value.getValueType()) {
+            case OBJECT:
+                writeObject(out, (JsonObject) value);
+                break;
+            case ARRAY:
+                out.write(ARRAY);
+                for (JsonValue v : (JsonArray) value) {
+                    writeValue(out, v);
+                }
+                out.write(ARRAY_END);
+                break;
+            case STRING:
+                writeString(out, ((JsonString) value).getString());
+                break;
+            case NUMBER:
+                JsonNumber number = (JsonNumber) value;
+                String text = number.toString();
+                if ( number.isIntegral() && text.length() <= 18 ) {
+                    out.write(INTEGER);
+                    long l = number.longValue();
+                    out.writeVarint((l << 1) ^ (l >> 63));
+                } else {
+                    out.write(DECIMAL);
+                    out.writeString(text);
+                }
+                break;
+            case TRUE:
+                out.write(TRUE);
+                break;
+            case FALSE:
+                out.write(FALSE);
+                break;
+            case NULL:
+                out.write(NULL);
+                break;
+        }
+    }
+
+    private static void writeKey(Output out, String key) {
+        Integer index = WORD_INDEX.get(key);
+        if ( index != null ) {
+            out.writeVarint((index << 1) | 1);
+        } else {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            out.writeVarint((bytes.length + 1L) << 1);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeString(Output out, String value) {
+        Integer index = WORD_INDEX.get(value);
+        if ( index != null ) {
+            out.write(WORD);
+            out.writeVarint(index);
+            return;
+        }
+
+        for (int i = 0; i < NUMBERED_PREFIXES.length; i++) {
+            long number = numberAfter(value, NUMBERED_PREFIXES[i]);
+            if ( number >= 0 ) {
+                out.write(NUMBERED);
+                out.writeVarint(i);
+                out.writeVarint(number);
+                return;
+            }
+        }
+
+        out.write(STRING);
+        out.writeString(value);
+    }
+
+    /**
+     * @return the number the value ends with if it is the prefix followed by
+     *         the digits of a non-negative long (with no leading zeros), or -1
+     */
+    private static long numberAfter(String value, String prefix) {
+        int start = prefix.length();
+        int length = value.length() - start;
+        if ( length < 1 || length > 18 || !value.startsWith(prefix) ) {
+            return -1;
+        }
+        if ( length > 1 && value.charAt(start) == '0' ) {
+            return -1;
+        }
+
+        long number = 0;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ( c < '0' || c > '9' ) {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * @param frame Binary frame read from the WebSocket
+     * @return decoded message
+     * @throws DecodeException if the frame is not a well formed binary Game On! message
+     */
+    static Message decode(ByteBuffer frame) throws DecodeException {
+        ByteBuffer original = frame.duplicate();
+        Input in = new Input(frame);
+        try {
+            if ( in.read() != VERSION ) {
+                throw new DecodeException(original, "Unsupported binary frame version");
+            }
+            int ordinal = in.read();
+            if ( ordinal >= TARGETS.length ) {
+                throw new DecodeException(original, "Unknown target: " + ordinal);
+            }
+            String targetId = in.readString();
+            if ( in.read() != OBJECT ) {
+                throw new DecodeException(original, "Payload is not an object");
+            }
+
+            Sender sender = new Sender();
+            JsonObject payload = readObject(in, sender, 1);
+            if ( in.remaining() > 0 ) {
+                throw new DecodeException(original, "Unexpected content after payload");
+            }
+
+            Message message = new Message(TARGETS[ordinal], targetId, payload);
+            message.setSenderFields(sender.userId, sender.username, sender.content);
+            return message;
+        } catch (FormatException | JsonException | NumberFormatException e) {
+            throw new DecodeException(original, "Badly formatted binary frame: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the attributes of an object (after its tag) through to its end.
+     * @param sender Where to remember the sender attributes (top level only), or null
+     */
+    private static JsonObject readObject(Input in, Sender sender, int depth) {
+        if ( depth > MAX_DEPTH ) {
+            throw new FormatException("Payload is nested too deeply");
+        }
+
+        JsonObjectBuilder object = BUILDER_FACTORY.createObjectBuilder();
+        long key;
+        while ( (key = in.readVarint()) != 0 ) {
+            String name;
+            if ( (key & 1) == 1 ) {
+                name = word(key >>> 1);
+            } else {
+                name = in.readString((key >>> 1) - 1);
+            }
+
+            int tag = in.read();
+            switch(tag) {
+                case OBJECT:
+                    object.add(name, readObject(in, null, depth + 1));
+                    break;
+                case ARRAY:
+                    object.add(name, readArray(in, depth + 1));
+                    break;
+                case NULL:
+                    object.addNull(name);
+                    break;
+                case FALSE:
+                    object.add(name, false);
+                    break;
+                case TRUE:
+                    object.add(name, true);
+                    break;
+                case INTEGER:
+                    object.add(name, readInteger(in));
+                    break;
+                case DECIMAL:
+                    object.add(name, new BigDecimal(in.readString()));
+                    break;
+                default:
+                    String value = readString(in, tag);
+                    object.add(name, value);
+                    if ( sender != null ) {
+                        sender.set(name, value);
+                    }
+                    break;
+            }
+        }
+        return object.build();
+    }
+
+    /**
+     * Read the values of an array (after its tag) through to its end.
+     */
+    private static JsonArray readArray(Input in, int depth) {
+        if ( depth > MAX_DEPTH ) {
+            throw new FormatException("Payload is nested too deeply");
+        }
+
+        JsonArrayBuilder array = BUILDER_FACTORY.createArrayBuilder();
+        int tag;
+        while ( (tag = in.read()) != ARRAY_END ) {
+            switch(tag) {
+                case OBJECT:
+                    array.add(readObject(in, null, depth + 1));
+                    break;
+                case ARRAY:
+                    array.add(readArray(in, depth + 1));
+                    break;
+                case NULL:
+                    array.addNull();
+                    break;
+                case FALSE:
+                    array.add(false);
+                    break;
+                case TRUE:
+                    array.add(true);
+                    break;
+                case INTEGER:
+                    array.add(readInteger(in));
+                    break;
+                case DECIMAL:
+                    array.add(new BigDecimal(in.readString()));
+                    break;
+                default:
+                    array.add(readString(in, tag));
+                    break;
+            }
+        }
+        return array.build();
+    }
+
+    private static long readInteger(Input in) {
+        long value = in.readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String readString(Input in, int tag) {
+        switch(tag) {
+            case STRING:
+                return in.readString();
+            case WORD:
+                return word(in.readVarint());
+            case NUMBERED:
+                long prefix = in.readVarint();
+                if ( prefix >= NUMBERED_PREFIXES.length ) {
+                    throw new FormatException("Unknown prefix: " + prefix);
+                }
+                return NUMBERED_PREFIXES[(int) prefix] + in.readVarint();
+            default:
+                throw new FormatException("Unknown value tag: " + tag);
+        }
+    }
+
+    private static String word(long index) {
+        if ( index >= WORDS.length ) {
+            throw new FormatException("Unknown word: " + index);
+        }
+        return WORDS[(int) index];
+    }
+
+    /** Top-level sender attributes, picked up while the payload is read */
+    private static class Sender {
+        String userId;
+        String username;
+        String content;
+
+        void set(String name, String value) {
+            if ( Message.USER_ID.equals(name) ) {
+                userId = value;
+            } else if ( Message.USERNAME.equals(name) ) {
+                username = value;
+            } else if ( Message.CONTENT.equals(name) ) {
+                content = value;
+            }
+        }
+    }
+
+    /** A frame that ends early or contains something it shouldn't */
+    private static class FormatException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        FormatException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static class Output {
+        private byte[] buf;
+        private int count;
+
+        Output(int size) {
+            buf = new byte[Math.max(size, 16)];
+        }
+
+        void write(int b) {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, count, bytes.length);
+            count += bytes.length;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ( (value & ~0x7FL) != 0 ) {
+                buf[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[count++] = (byte) value;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        private void ensure(int n) {
+            if ( count + n > buf.length ) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+            }
+        }
+    }
+
+    private static class Input {
+        private final ByteBuffer buf;
+
+        Input(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        int remaining() {
+            return buf.remaining();
+        }
+
+        int read() {
+            if ( !buf.hasRemaining() ) {
+                throw new FormatException("Truncated frame");
+            }
+            return buf.get() & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ( (b & 0x80) == 0 ) {
+                    return value;
+                }
+            }
+            throw new FormatException("Malformed varint");
+        }
+
+        String readString() {
+            return readString(readVarint());
+        }
+
+        String readString(long length) {
+            if ( length < 0 || length > buf.remaining() ) {
+                throw new FormatException("Truncated frame");
+            }
+            int n = (int) length;
+            String s;
+            if ( buf.hasArray() ) {
+                s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, StandardCharsets.UTF_8);
+                buf.position(buf.position() + n);
+            } else {
+                byte[] bytes = new byte[n];
+                buf.get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return s;
+        }
+    }
+}
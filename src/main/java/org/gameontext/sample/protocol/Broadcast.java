@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.websocket.EncodeException;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.sample.Log;
+import org.gameontext.sample.metrics.Metrics;
+
+/**
+ * One message on its way to a set of sessions.
+ * <p>
+ * The message is encoded once per wire format (text, or binary for
+ * sessions that negotiated it), and the same frame is queued for every
+ * session. Each write reports back here: writes that fail (including those
+ * that exceed {@link SessionSender#SEND_TIMEOUT}) or that take longer than
+ * {@link #SLOW_SEND} are collected, and reported together once every session
+ * has been dealt with, along with sessions the message was dropped for.
+ * </p>
+ * <p>
+ * A message that can't be encoded is reported as a failed write for the
+ * sessions that needed that format: the sessions themselves are fine, so
+ * they are left open, and the rest of the sessions still get the message.
+ * </p>
+ */
+class Broadcast {
+
+    /** Writes taking longer than this many milliseconds are reported as slow */
+    static final long SLOW_SEND = 1000;
+
+    private final RoomEndpoint endpoint;
+    private final Message message;
+    private final long start = System.nanoTime();
+
+    /**
+     * Encoded frames (String, byte[]), or the {@code EncodeException} encoding
+     * failed with. Only used by the thread queuing the frames.
+     */
+    private Object text;
+    private Object binary;
+
+    private final AtomicInteger remaining;
+    private final int total;
+    private final Queue<String> slow = new ConcurrentLinkedQueue<>();
+    private final Queue<String> failed = new ConcurrentLinkedQueue<>();
+    private final Queue<String> dropped = new ConcurrentLinkedQueue<>();
+
+    Broadcast(RoomEndpoint endpoint, Message message, int sessions) {
+        this.endpoint = endpoint;
+        this.message = message;
+        this.total = sessions;
+        this.remaining = new AtomicInteger(sessions);
+    }
+
+    /**
+     * Queue the frame for a session
+     * @param session target session
+     */
+    void sendTo(Session session) {
+        SessionSender sender = SessionSender.get(session);
+        Object frame = frame(sender.isBinary());
+        if ( frame instanceof EncodeException ) {
+            complete(session, new SendResult((EncodeException) frame));
+        } else if ( frame instanceof byte[] ) {
+            sender.send((byte[]) frame, message.isDroppable(), result -> complete(session, result));
+        } else {
+            sender.send((String) frame, message.isDroppable(), result -> complete(session, result));
+        }
+    }
+
+    /**
+     * @param binaryFormat true for the binary format, false for text
+     * @return the encoded frame, or the {@code EncodeException} encoding failed with
+     */
+    private Object frame(boolean binaryFormat) {
+        Object frame = binaryFormat ? binary : text;
+        if ( frame == null ) {
+            try {
+                frame = binaryFormat ? message.encodeBinary() : message.encode();
+            } catch (RuntimeException e) {
+                // Counted here, once per message and format: this is where the room encodes
+                Metrics.codecErrors.inc("encode");
+                Log.log(Level.WARNING, endpoint, "Unable to encode message", e);
+                frame = new EncodeException(message, "Unable to encode message", e);
+            }
+            if ( binaryFormat ) {
+                binary = frame;
+            } else {
+                text = frame;
+            }
+        }
+        return frame;
+    }
+
+    private void complete(Session session, SendResult result) {
+        long elapsedNanos = System.nanoTime() - start;
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+
+        if ( !result.isOK() ) {
+            Throwable t = result.getException();
+            if ( t instanceof SessionSender.DroppedException ) {
+                dropped.add(session.getId());
+            } else if ( t instanceof EncodeException ) {
+                // Nothing was written: the connection is fine
+                failed.add(session.getId());
+            } else {
+                failed.add(session.getId());
+
+                // A failed write suggests the connection is in a bad state.
+                Log.log(Level.FINE, endpoint, "Unexpected condition writing message", t);
+                if ( session.isOpen() ) {
+                    endpoint.tryToClose(session, endpoint.unexpectedCondition(String.valueOf(t)));
+                }
+            }
+        } else {
+            Metrics.sendLatency.observe(elapsedNanos);
+            if ( elapsed > SLOW_SEND ) {
+                slow.add(session.getId());
+            }
+        }
+
+        if ( remaining.decrementAndGet() == 0 ) {
+            report(elapsed);
+        }
+    }
+
+    private void report(long elapsed) {
+        if ( !slow.isEmpty() || !failed.isEmpty() || !dropped.isEmpty() ) {
+            Log.log(Level.INFO, endpoint,
+                    "{0} message to {1} sessions took {2}ms. Slow receivers: {3}, failed receivers: {4}, dropped for: {5}",
+                    message.getTarget(), total, elapsed, slow, failed, dropped);
+        }
+    }
+}
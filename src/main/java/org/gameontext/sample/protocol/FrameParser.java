@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.websocket.DecodeException;
+
+import org.gameontext.sample.protocol.Message.Target;
+
+/**
+ * Single pass reader for the {@code target,targetId,{json}} wire format.
+ * <p>
+ * The header is scanned in place (no splitting or trimming), and the JSON
+ * payload is tokenized exactly once with a streaming parser: that both
+ * validates the payload, so badly formed frames are rejected when they are
+ * decoded, and picks up the sender attributes that room messages are
+ * handled with. The only strings created are the ones the {@link Message}
+ * keeps.
+ * </p>
+ */
+final class FrameParser {
+
+    /** Creating a parser through {@link Json} looks up the provider every time */
+    static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+    private static final Target[] TARGETS = Target.values();
+
+    private FrameParser() {}
+
+    /**
+     * @param frame String read from the WebSocket
+     * @param message Message being constructed, to fill in
+     * @throws DecodeException if the frame is not a well formed Game On! message
+     * @see Message#Message(String)
+     */
+    static void parse(String frame, Message message) throws DecodeException {
+        int brace = frame.indexOf('{');
+        if ( brace < 0 ) {
+            throw new DecodeException(frame, "Badly formatted payload, unable to find JSON payload: \"" + frame + "\"");
+        }
+
+        int comma = frame.indexOf(',');
+        if ( comma < 0 || comma > brace ) {
+            throw new DecodeException(frame, "Badly formatted payload, unable to target and targetId: \"" + frame + "\"");
+        }
+
+        Target target = findTarget(frame, skipWhitespace(frame, 0, comma), trimEnd(frame, 0, comma));
+        if ( target == null ) {
+            throw new DecodeException(frame, "Unknown target: \"" + frame + "\"");
+        }
+
+        String targetId = "";
+        int next = comma + 1;
+        comma = frame.indexOf(',', next);
+        if ( comma > 0 && comma < brace ) {
+            int start = skipWhitespace(frame, next, comma);
+            int end = trimEnd(frame, start, comma);
+            targetId = frame.substring(start, end);
+            next = comma + 1;
+        }
+
+        // Only whitespace is allowed between the header and the payload
+        if ( skipWhitespace(frame, next, brace) != brace ) {
+            throw new DecodeException(frame, "Badly formatted payload, unexpected characters before JSON payload: \"" + frame + "\"");
+        }
+
+        int end = trimEnd(frame, brace, frame.length());
+        message.init(target, targetId, frame.substring(brace, end));
+
+        try (StringReader reader = new StringReader(frame)) {
+            reader.skip(brace);
+            try (JsonParser parser = PARSER_FACTORY.createParser(reader)) {
+                readSenderFields(parser, message, true);
+            }
+        } catch (JsonException | IllegalStateException | IOException e) {
+            throw new DecodeException(frame, "Badly formatted JSON payload: \"" + frame + "\"", e);
+        }
+    }
+
+    /**
+     * Walk the events of a JSON object, remembering string values for the
+     * top-level {@value Message#USER_ID}, {@value Message#USERNAME}, and
+     * {@value Message#CONTENT} attributes.
+     *
+     * @param parser Parser positioned before the start of the object
+     * @param message Message to set the sender fields on
+     * @param validate if true, read (and so validate) the entire payload,
+     *        otherwise stop as soon as all three attributes have been found
+     * @throws JsonException if the payload is not a single JSON object
+     */
+    static void readSenderFields(JsonParser parser, Message message, boolean validate) {
+        String userId = null;
+        String username = null;
+        String content = null;
+
+        int depth = 0;
+        String key = null;
+
+        while ( parser.hasNext() ) {
+            JsonParser.Event event = parser.next();
+            if ( depth == 0 && event != JsonParser.Event.START_OBJECT ) {
+                throw new JsonException("Payload is not a JSON object");
+            }
+
+            switch(event) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    key = null;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                case KEY_NAME:
+                    key = depth == 1 ? parser.getString() : null;
+                    break;
+                case VALUE_STRING:
+                    if ( Message.USER_ID.equals(key) ) {
+                        userId = parser.getString();
+                    } else if ( Message.USERNAME.equals(key) ) {
+                        username = parser.getString();
+                    } else if ( Message.CONTENT.equals(key) ) {
+                        content = parser.getString();
+                    }
+                    key = null;
+                    break;
+                default:
+                    key = null;
+                    break;
+            }
+
+            if ( depth == 0 ) {
+                // End of the payload object: there should be nothing after it.
+                if ( validate && parser.hasNext() ) {
+                    throw new JsonException("Unexpected content after JSON payload");
+                }
+                break;
+            }
+            if ( !validate && userId != null && username != null && content != null ) {
+                break;
+            }
+        }
+
+        if ( validate && depth != 0 ) {
+            throw new JsonException("Incomplete JSON payload");
+        }
+
+        message.setSenderFields(userId, username, content);
+    }
+
+    private static Target findTarget(String frame, int start, int end) {
+        int length = end - start;
+        for (Target t : TARGETS) {
+            String name = t.name();
+            if ( name.length() == length && frame.regionMatches(start, name, 0, length) ) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(String s, int start, int end) {
+        while ( start < end && Character.isWhitespace(s.charAt(start)) ) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String s, int start, int end) {
+        while ( end > start && Character.isWhitespace(s.charAt(end - 1)) ) {
+            end--;
+        }
+        return end;
+    }
+}
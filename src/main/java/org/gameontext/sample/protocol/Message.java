@@ -16,15 +16,17 @@
 package org.gameontext.sample.protocol;
 
 import java.io.StringReader;
-import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import javax.json.Json;
-import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
 import javax.websocket.DecodeException;
 
 import org.gameontext.sample.Log;
@@ -41,6 +43,9 @@ public class Message {
     /** Incrementing message id for bookmark */
     private static AtomicLong bookmark = new AtomicLong(0);
 
+    /** Creating a reader through {@link Json} looks up the provider every time */
+    private static final JsonReaderFactory READER_FACTORY = Json.createReaderFactory(null);
+
     /**
      * The first segment in the WebSocket protocol for Game On!
      * This is used as a primitive routing filter as messages flow through
@@ -66,10 +71,11 @@ public class Message {
     };
 
     /**
-     * Ack message: this supports both version 1 & 2
-     * {@code ack,{\"version\":[1,2]}}
+     * Ack message: this supports versions 1, 2 & 3. Version 3 is version 2
+     * in the binary wire format (see {@link BinaryFrame}).
+     * {@code ack,{\"version\":[1,2,3]}}
      */
-    public static final Message ACK_MSG = new Message(Target.ack, "", "{\"version\":[1,2]}");
+    public static final Message ACK_MSG = new Message(Target.ack, "", "{\"version\":[1,2,3]}");
 
     /** JSON element specifying the type of message. */
     private static final String TYPE = "type";
@@ -93,8 +99,9 @@ public class Message {
     private static final String ALL = "*";
 
     /**
-     * Create an event targeted at a specific player (still use broadcast to send to
-     * all connections)
+     * Create an event targeted at a specific player. It is only sent to the
+     * sessions that player is connected through (or to everyone, if the room
+     * doesn't know where the player is)
      *
      * @return constructed message
      */
@@ -114,7 +121,7 @@ public class Message {
         payload.add(CONTENT, content.build());
 
         payload.add(BOOKMARK, PREFIX + bookmark.incrementAndGet());
-        return new Message(Target.player, userid, payload.build().toString());
+        return new Message(Target.player, userid, payload.build());
     }
 
     /**
@@ -155,7 +162,7 @@ public class Message {
         payload.add(CONTENT, content.build());
 
         payload.add(BOOKMARK, PREFIX + bookmark.incrementAndGet());
-        return new Message(Target.player, ALL, payload.build().toString());
+        return new Message(Target.player, ALL, payload.build());
     }
 
     /**
@@ -177,12 +184,14 @@ public class Message {
         payload.add(CONTENT, message);
 
         payload.add(BOOKMARK, PREFIX + bookmark.incrementAndGet());
-        return new Message(Target.player, ALL, payload.build().toString());
+        Message chat = new Message(Target.player, ALL, payload.build());
+        chat.droppable = true;
+        return chat;
     }
 
     /**
      * Send information about the room to the client. This message is sent after
-     * receiving a `roomHello`.
+     * receiving a `roomHello`, a `roomJoin`, or a `/look`.
      * @param userId
      * @param roomDescription Room attributes
      * @return constructed message
@@ -202,25 +211,9 @@ public class Message {
         //      },
         //      "roomInventory": ["itemA","itemB"]
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(TYPE, "location");
-        payload.add("name", roomDescription.getName());
-        payload.add("fullName", roomDescription.getFullName());
-        payload.add("description", roomDescription.getDescription());
-
-        // convert map of commands into JsonObject
-        JsonObject commands = roomDescription.getCommands();
-        if ( !commands.isEmpty()) {
-            payload.add("commands", commands);
-        }
-
-        // Convert list of items into json array
-        JsonArray inventory = roomDescription.getInventory();
-        if ( !inventory.isEmpty()) {
-            payload.add("roomInventory", inventory);
-        }
-
-        return new Message(Target.player, userId, payload.build().toString());
+        // The payload is the same for everyone: RoomDescription caches it.
+        RoomDescription.Location location = roomDescription.getLocation();
+        return new Message(Target.player, userId, location.getBody(), location.getPayload());
     }
 
     /**
@@ -259,7 +252,7 @@ public class Message {
         payload.add("exitId", exitId);
         payload.add(CONTENT, message == null ? "Fare thee well" : message);
 
-        return new Message(Target.playerLocation, userId, payload.build().toString());
+        return new Message(Target.playerLocation, userId, payload.build());
     }
 
     /**
@@ -281,7 +274,7 @@ public class Message {
         payload.add(USERNAME, username);
         payload.add(CONTENT, content);
 
-        return new Message(Target.room, roomId, payload.build().toString());
+        return new Message(Target.room, roomId, payload.build());
     }
 
     /**
@@ -296,14 +289,14 @@ public class Message {
         //  roomHello,<roomId>,{
         //      "username": "username",
         //      "userId": "<userId>",
-        //      "version": 1|2
+        //      "version": 1|2|3
         //  }
         JsonObjectBuilder payload = Json.createObjectBuilder();
         payload.add(USER_ID, userId);
         payload.add(USERNAME, username);
         payload.add("version", version);
 
-        return new Message(Target.roomHello, roomId, payload.build().toString());
+        return new Message(Target.roomHello, roomId, payload.build());
     }
 
     /**
@@ -323,7 +316,7 @@ public class Message {
         payload.add(USER_ID, userId);
         payload.add(USERNAME, username);
 
-        return new Message(Target.roomGoodbye, roomId, payload.build().toString());
+        return new Message(Target.roomGoodbye, roomId, payload.build());
     }
 
     /**
@@ -345,7 +338,7 @@ public class Message {
         payload.add(USERNAME, username);
         payload.add("version", version);
 
-        return new Message(Target.roomJoin, roomId, payload.build().toString());
+        return new Message(Target.roomJoin, roomId, payload.build());
     }
 
     /**
@@ -365,24 +358,61 @@ public class Message {
         payload.add(USER_ID, userId);
         payload.add(USERNAME, username);
 
-        return new Message(Target.roomPart, roomId, payload.build().toString());
+        return new Message(Target.roomPart, roomId, payload.build());
     }
 
     /**
-     * Target for the message
+     * Target for the message. Set when the message is created or decoded,
+     * and not changed after that.
      * @see Target
      */
-    private final Target target;
+    private Target target;
 
     /**
      * Target for the message (This room, specific player, or '*')
      */
-    private final String targetId;
+    private String targetId;
+
+    /**
+     * Stringified JSON payload. Messages built as a JsonObject create this
+     * on first use.
+     * @see #getPayload()
+     */
+    private volatile String payload;
+
+    /**
+     * Parsed JSON payload. Messages read as text create this on first use.
+     * @see #getParsedBody()
+     */
+    private volatile JsonObject parsedBody;
+
+    /**
+     * Sender attributes, read from the top level of the payload on first use.
+     * @see #scanSenderFields()
+     */
+    private String userId;
+    private String username;
+    private String content;
+    private volatile boolean senderFieldsScanned;
 
     /**
-     * Stringified JSON payload
+     * True if the message can be dropped rather than delivered to a receiver
+     * that isn't keeping up (chatter, rather than anything that changes what
+     * the player sees of the room).
      */
-    private final String payload;
+    private boolean droppable = false;
+
+    /**
+     * Wire format of the message, created on first use.
+     * @see #encode()
+     */
+    private volatile String encoded;
+
+    /**
+     * Binary wire format of the message, created on first use.
+     * @see #encodeBinary()
+     */
+    private volatile byte[] encodedBinary;
 
     /**
      * Parse a string read from the WebSocket, and convert it into
@@ -392,44 +422,47 @@ public class Message {
      * @see MessageDecoder#decode(String)
      */
     public Message(String s) throws DecodeException {
-        // this is getting parsed in a low-level/raw way.
-        // We don't split on commas arbitrarily: there are commas in the
-        // json payload, which means unnecessary splitting and joining.
-        ArrayList<String> list = new ArrayList<>(3);
-
-        int brace = s.indexOf('{'); // first brace
-        int i = 0;
-        int j = s.indexOf(',');
-        while (j > 0 && j < brace) {
-            list.add(s.substring(i, j).trim());
-            i = j + 1;
-            j = s.indexOf(',', i);
-        }
-
-        if ( list.isEmpty() ) {
-            // UMMM. Badness. Bad message. Bad!
-            throw new DecodeException(s,
-                    "Badly formatted payload, unable to target and targetId: \"" + s + "\"");
-        }
-
-        // stash all of the rest in the data field.
-        this.payload = s.substring(i).trim();
+        FrameParser.parse(s, this);
+    }
 
-        // The flowTarget is always present.
-        // The destination may or may not be present, but shouldn't return null.
-        this.target = Target.valueOf(list.get(0));
-        this.targetId = list.size() > 1 ? list.get(1) : "";
+    /**
+     * Fill in a message being decoded: only called by {@link FrameParser},
+     * from the constructor
+     */
+    void init(Target target, String targetId, String payload) {
+        this.target = target;
+        this.targetId = targetId;
+        this.payload = payload;
     }
 
     /**
-     * Construct a new outbound message
+     * Construct a new message
      * @param target General target for the message
      * @param targetId	Specific player id, '*', or null (for
      * @param payload
      */
-    private Message(Target target, String targetId, String payload) {
+    Message(Target target, String targetId, String payload) {
+        this(target, targetId, null, payload);
+    }
+
+    /**
+     * Construct a new message from its JSON payload
+     * @param target General target for the message
+     * @param targetId Specific player id, '*', or null
+     * @param body JSON payload
+     */
+    Message(Target target, String targetId, JsonObject body) {
+        this(target, targetId, body, null);
+    }
+
+    /**
+     * @param body JSON payload, or null to parse it from the text on first use
+     * @param payload The same payload as text, or null to write it out on first use
+     */
+    private Message(Target target, String targetId, JsonObject body, String payload) {
         this.target = target;
         this.targetId = targetId == null ? "" : targetId;
+        this.parsedBody = body;
         this.payload = payload;
     }
 
@@ -454,29 +487,141 @@ public class Message {
         return targetId;
     }
 
-    public JsonObject getParsedBody() {
-        JsonReader jsonReader = Json.createReader(new StringReader(payload));
-        JsonObject object = jsonReader.readObject();
-        jsonReader.close();
+    /**
+     * @return true if this message is meant for everyone, rather than a specific player
+     */
+    public boolean isBroadcast() {
+        return targetId.isEmpty() || ALL.equals(targetId);
+    }
+
+    /**
+     * @return true if this message may be dropped for a slow receiver
+     * @see SessionSender
+     */
+    public boolean isDroppable() {
+        return droppable;
+    }
 
+    /**
+     * The payload is parsed at most once: the resulting (immutable)
+     * {@code JsonObject} is kept and returned for subsequent calls.
+     * @return parsed JSON payload
+     */
+    public JsonObject getParsedBody() {
+        JsonObject object = parsedBody;
+        if ( object == null ) {
+            try (JsonReader jsonReader = READER_FACTORY.createReader(new StringReader(payload))) {
+                object = parsedBody = jsonReader.readObject();
+            }
+        }
         return object;
     }
 
     /**
-     * Convert message to a string for use as an outbound message over the WebSocket
-     * @see MessageEncoder#encode(Message)
+     * @return the {@value #USER_ID} attribute of the payload, or null
+     */
+    public String getUserId() {
+        scanSenderFields();
+        return userId;
+    }
+
+    /**
+     * @return the {@value #USERNAME} attribute of the payload, or null
+     */
+    public String getUsername() {
+        scanSenderFields();
+        return username;
+    }
+
+    /**
+     * @return the {@value #CONTENT} attribute of the payload if it is a string, or null
+     */
+    public String getContent() {
+        scanSenderFields();
+        return content;
+    }
+
+    /**
+     * Room messages are mostly handled based on who sent them and what they said.
+     * Pull those values out of the payload with a streaming parser (stopping
+     * as soon as they've been found) rather than building the whole JsonObject.
+     * Inbound messages have these set while they are decoded.
+     */
+    private void scanSenderFields() {
+        if ( senderFieldsScanned ) {
+            return;
+        }
+
+        JsonObject object = parsedBody;
+        if ( object != null ) {
+            setSenderFields(getStringOrNull(object, USER_ID),
+                    getStringOrNull(object, USERNAME),
+                    getStringOrNull(object, CONTENT));
+        } else {
+            try (JsonParser parser = FrameParser.PARSER_FACTORY.createParser(new StringReader(payload))) {
+                FrameParser.readSenderFields(parser, this, false);
+            }
+        }
+    }
+
+    void setSenderFields(String userId, String username, String content) {
+        this.userId = userId;
+        this.username = username;
+        this.content = content;
+        this.senderFieldsScanned = true;
+    }
+
+    private static String getStringOrNull(JsonObject object, String key) {
+        JsonValue value = object.get(key);
+        return value instanceof JsonString ? ((JsonString) value).getString() : null;
+    }
+
+    /**
+     * Convert message to a string for use as an outbound message over the WebSocket.
+     * The result is remembered, so a message broadcast to many sessions is only
+     * encoded once.
+     * @see Broadcast
      */
     public String encode() {
-        StringBuilder result = new StringBuilder();
-        result.append(target).append(',');
+        String result = encoded;
+        if ( result == null ) {
+            String text = getPayload();
+            StringBuilder sb = new StringBuilder(target.name().length() + targetId.length() + text.length() + 2);
+            sb.append(target.name()).append(',');
+
+            if (!targetId.isEmpty()) {
+                sb.append(targetId).append(',');
+            }
 
-        if (!targetId.isEmpty()) {
-            result.append(targetId).append(',');
+            sb.append(text);
+            result = encoded = sb.toString();
         }
+        return result;
+    }
 
-        result.append(payload);
+    /**
+     * Convert message to the binary format used by sessions that negotiated
+     * protocol version 3. Like {@link #encode()}, the result is remembered:
+     * the returned array must not be modified.
+     * @see BinaryFrame
+     */
+    public byte[] encodeBinary() {
+        byte[] result = encodedBinary;
+        if ( result == null ) {
+            result = encodedBinary = BinaryFrame.encode(this);
+        }
+        return result;
+    }
 
-        return result.toString();
+    /**
+     * @return stringified JSON payload
+     */
+    String getPayload() {
+        String result = payload;
+        if ( result == null ) {
+            result = payload = parsedBody.toString();
+        }
+        return result;
     }
 
     @Override
@@ -488,7 +633,7 @@ public class Message {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + payload.hashCode();
+        result = prime * result + getPayload().hashCode();
         result = prime * result + target.hashCode();
         result = prime * result + targetId.hashCode();
         return result;
@@ -507,7 +652,7 @@ public class Message {
         Message other = (Message) obj;
 
         // Private constructor, none of these are ever null.
-        return payload.equals(other.payload)
+        return getPayload().equals(other.getPayload())
                 && target.equals(other.target)
                 && targetId.equals(other.targetId);
     }
@@ -15,15 +15,20 @@
  *******************************************************************************/
 package org.gameontext.sample.protocol;
 
-import javax.websocket.EncodeException;
-import javax.websocket.Encoder;
+import java.nio.ByteBuffer;
+
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
 import javax.websocket.EndpointConfig;
 
+import org.gameontext.sample.metrics.Metrics;
+
 /**
- * All magic to convert the on-the-wire protocol for messages
- * is contained in the {@link Message} class
+ * Binary frames (protocol version 3) are read by {@link BinaryFrame}: like
+ * text frames, the resulting {@link Message} already knows its target and
+ * sender.
  */
-public class MessageEncoder implements Encoder.Text<Message> {
+public class MessageBinaryDecoder implements Decoder.Binary<Message> {
 
     @Override
     public void init(EndpointConfig config) {
@@ -36,7 +41,18 @@ public class MessageEncoder implements Encoder.Text<Message> {
     }
 
     @Override
-    public String encode(Message msg) throws EncodeException {
-        return msg.encode();
+    public Message decode(ByteBuffer bytes) throws DecodeException {
+        try {
+            return BinaryFrame.decode(bytes);
+        } catch (DecodeException | RuntimeException e) {
+            Metrics.codecErrors.inc("decode");
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean willDecode(ByteBuffer bytes) {
+        return true;
     }
+
 }
@@ -19,9 +19,11 @@ import javax.websocket.DecodeException;
 import javax.websocket.Decoder;
 import javax.websocket.EndpointConfig;
 
+import org.gameontext.sample.metrics.Metrics;
+
 /**
- * All magic to convert the on-the-wire protocol for messages
- * is contained in the {@link Message} class
+ * Frames are read in a single pass by {@link FrameParser}: the resulting
+ * {@link Message} already knows its target and sender.
  */
 public class MessageDecoder implements Decoder.Text<Message> {
 
@@ -37,7 +39,12 @@ public class MessageDecoder implements Decoder.Text<Message> {
 
     @Override
     public Message decode(String s) throws DecodeException {
-        return new Message(s);
+        try {
+            return new Message(s);
+        } catch (DecodeException | RuntimeException e) {
+            Metrics.codecErrors.inc("decode");
+            throw e;
+        }
     }
 
     @Override
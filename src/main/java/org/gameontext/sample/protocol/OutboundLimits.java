@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+
+import org.gameontext.sample.Log;
+
+/**
+ * Limits on each session's outbound queue: see {@link SessionSender}.
+ * <p>
+ * Senders are created per session, outside of CDI, so the limits are read
+ * here when the application starts and handed to every sender created
+ * after that.
+ * </p>
+ */
+@ApplicationScoped
+public class OutboundLimits {
+
+    /**
+     * Depth at which chat frames start being dropped.
+     * This is set via the environment variable OUTBOUND_QUEUE_HIGH. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "outboundQueueHigh")
+    protected String high;
+
+    /**
+     * Depth at which a session is no longer considered slow.
+     * This is set via the environment variable OUTBOUND_QUEUE_LOW. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "outboundQueueLow")
+    protected String low;
+
+    /**
+     * Milliseconds a session can stay over the high watermark before it is closed.
+     * This is set via the environment variable OUTBOUND_QUEUE_GRACE. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "outboundQueueGrace")
+    protected String grace;
+
+    @PostConstruct
+    protected void postConstruct() {
+        SessionSender.configure(
+                parseConfig(high, "OUTBOUND_QUEUE_HIGH", SessionSender.HIGH_WATERMARK),
+                parseConfig(low, "OUTBOUND_QUEUE_LOW", SessionSender.LOW_WATERMARK),
+                parseConfig(grace, "OUTBOUND_QUEUE_GRACE", SessionSender.GRACE_PERIOD));
+        Log.log(Level.INFO, this, "Outbound queue limits: {0}", SessionSender.getDefaultLimits());
+    }
+
+    /**
+     * Read the limits when the application starts, before the first session opens.
+     */
+    protected void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        Log.log(Level.FINE, this, "Outbound queue limits read with the application");
+    }
+
+    private int parseConfig(String value, String envName, int defaultValue) {
+        if ( value == null || value.contains(envName) ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Log.log(Level.WARNING, this, "Ignoring invalid value for {0}: {1}", envName, value);
+            return defaultValue;
+        }
+    }
+}
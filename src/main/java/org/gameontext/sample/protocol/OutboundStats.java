@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the per-session outbound queues, across all sessions.
+ *
+ * @see SessionSender
+ */
+public class OutboundStats {
+
+    static final LongAdder queued = new LongAdder();
+    static final AtomicInteger deepest = new AtomicInteger(0);
+    static final LongAdder sent = new LongAdder();
+    static final LongAdder dropped = new LongAdder();
+    static final LongAdder evicted = new LongAdder();
+
+    private OutboundStats() {}
+
+    /**
+     * @return frames currently waiting to be written, across all sessions
+     */
+    public static long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * @return the deepest any single session's queue has been
+     */
+    public static int getDeepest() {
+        return deepest.get();
+    }
+
+    /**
+     * @return frames written
+     */
+    public static long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return chat frames dropped because a receiver was not keeping up
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return sessions closed because they stayed over the queue limit
+     */
+    public static long getEvicted() {
+        return evicted.sum();
+    }
+
+    static void recordDepth(int depth) {
+        int d = deepest.get();
+        while ( depth > d && !deepest.compareAndSet(d, depth) ) {
+            d = deepest.get();
+        }
+    }
+}
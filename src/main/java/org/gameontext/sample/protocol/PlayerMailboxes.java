@@ -0,0 +1,505 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.gameontext.sample.Log;
+import org.gameontext.sample.LogSampler;
+import org.gameontext.sample.RoomExecutor;
+import org.gameontext.sample.metrics.Metrics;
+
+/**
+ * Inbound work, queued per player.
+ * <p>
+ * Every player has a mailbox. Work for a player is run in the order it
+ * arrived, one item at a time, on a shared pool: one player's slow command
+ * holds up that player's later commands, but nobody else's. A mailbox only
+ * occupies a pool thread while it has work, and gives the thread back after
+ * {@link #BATCH} items so that busy players can't starve quiet ones.
+ * </p>
+ * <p>
+ * Each mailbox keeps track of how deep it has been and how long its work
+ * takes: see {@link #getStats()}, and {@link #getDeepest(int)} for the
+ * players with the most work waiting. Mailboxes are discarded once the player
+ * has {@linkplain #release(String) left} and the mailbox is empty.
+ * </p>
+ * <p>
+ * Mailboxes are bounded: once a player has {@link #LIMIT} items waiting,
+ * further sheddable work (what they say and do in the room) is turned away
+ * rather than queued. Work that changes who is in the room is always
+ * queued. Work never runs on the thread that submits it: a mailbox the pool
+ * won't take right now waits until the pool has room. Stalled mailboxes are
+ * all retried whenever a mailbox gives its thread back, and on a timer (from
+ * {@link #RETRY_MIN} backing off to {@link #RETRY_MAX} milliseconds) in case
+ * the pool is busy with other work.
+ * The limit is set via the environment variable INBOUND_QUEUE_LIMIT, which
+ * is read in server.xml.
+ * </p>
+ */
+@ApplicationScoped
+public class PlayerMailboxes {
+
+    /** Items a mailbox processes before giving its thread back to the pool */
+    static final int BATCH = 16;
+
+    /** Work taking longer than this many milliseconds is reported as slow */
+    static final long SLOW_WORK = 1000;
+
+    /** Mailboxes deeper than this are reported */
+    static final int DEEP = 32;
+
+    /** By default, sheddable work is turned away from mailboxes this deep */
+    static final int LIMIT = 256;
+
+    /** First delay, in milliseconds, before stalled mailboxes are retried */
+    static final long RETRY_MIN = 10;
+
+    /** Longest delay, in milliseconds, between retries of stalled mailboxes */
+    static final long RETRY_MAX = 1000;
+
+    /** An overloaded room would otherwise log every message it turns away */
+    private static final LogSampler SHED_TRACE = LogSampler.fromEnv("shed message");
+    private static final LogSampler STALL_TRACE = LogSampler.fromEnv("stalled mailbox");
+
+    /**
+     * Where blocking work runs: see {@link RoomExecutor}
+     */
+    @Inject
+    protected RoomExecutor executor;
+
+    /**
+     * Depth at which sheddable work is turned away.
+     * This is set via the environment variable INBOUND_QUEUE_LIMIT. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "inboundQueueLimit")
+    protected String inboundQueueLimit;
+
+    /**
+     * Scheduler provided by the container (concurrent-1.0 feature).
+     */
+    @Resource
+    protected ManagedScheduledExecutorService managedScheduler;
+
+    /** Used when there is no managed executor */
+    private final Executor fallback;
+
+    private ScheduledExecutorService ownScheduler = null;
+
+    private volatile int limit = LIMIT;
+
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    /** Mailboxes with work that the pool turned away: retried as pool threads come free, and on a timer */
+    private final ConcurrentLinkedDeque<Mailbox> stalled = new ConcurrentLinkedDeque<>();
+
+    /** true while a timed retry of the stalled mailboxes is scheduled */
+    private final AtomicBoolean retryPending = new AtomicBoolean(false);
+    private volatile long retryDelay = RETRY_MIN;
+
+    public PlayerMailboxes() {
+        this(null);
+    }
+
+    /**
+     * @param fallback Pool to run mailboxes on outside of the container
+     */
+    PlayerMailboxes(Executor fallback) {
+        this.fallback = fallback;
+    }
+
+    @PostConstruct
+    protected void postConstruct() {
+        if ( inboundQueueLimit != null && !inboundQueueLimit.contains("INBOUND_QUEUE_LIMIT") ) {
+            try {
+                limit = Math.max(Integer.parseInt(inboundQueueLimit.trim()), 1);
+            } catch (NumberFormatException e) {
+                Log.log(Level.WARNING, this, "Ignoring invalid value for INBOUND_QUEUE_LIMIT: {0}", inboundQueueLimit);
+            }
+        }
+        Log.log(Level.INFO, this, "Player mailboxes initialized: limit={0}", limit);
+    }
+
+    @PreDestroy
+    protected void preDestroy() {
+        synchronized (this) {
+            if ( ownScheduler != null ) {
+                ownScheduler.shutdownNow();
+                ownScheduler = null;
+            }
+        }
+    }
+
+    /**
+     * Queue work for a player. The work is always queued.
+     * @param userId Player the work is for (work without a player shares a mailbox)
+     * @param work Work to run after anything already queued for the player
+     */
+    public void submit(String userId, Runnable work) {
+        submit(userId, work, false);
+    }
+
+    /**
+     * Queue work for a player
+     * @param userId Player the work is for (work without a player shares a mailbox)
+     * @param work Work to run after anything already queued for the player
+     * @param sheddable true if the work may be turned away when the player's mailbox is full
+     * @return false if the work was turned away
+     */
+    public boolean submit(String userId, Runnable work, boolean sheddable) {
+        String key = userId == null ? "" : userId;
+        Offer offer;
+        while ( (offer = mailboxes.computeIfAbsent(key, Mailbox::new).offer(work, sheddable)) == Offer.RETIRED ) {
+            // That mailbox was just retired: the next one will do
+        }
+        retryStalled();
+
+        if ( offer == Offer.FULL ) {
+            Metrics.inboundShed.inc();
+            Log.log(Level.WARNING, this, SHED_TRACE, "Mailbox for {0} is full: turned away a message", key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The player has left: forget their mailbox once it has been emptied.
+     * Work submitted for the player in the meantime keeps it alive.
+     * @param userId Player that left
+     */
+    public void release(String userId) {
+        Mailbox mailbox = userId == null ? null : mailboxes.get(userId);
+        if ( mailbox != null ) {
+            mailbox.release();
+        }
+    }
+
+    /**
+     * @param userId Player
+     * @return number of items waiting to run for the player
+     */
+    public int getDepth(String userId) {
+        Mailbox mailbox = mailboxes.get(userId);
+        return mailbox == null ? 0 : mailbox.depth;
+    }
+
+    /**
+     * @return a snapshot of every mailbox
+     */
+    public List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>(mailboxes.size());
+        mailboxes.values().forEach(m -> stats.add(m.stats()));
+        return stats;
+    }
+
+    /**
+     * @param n Most players to report
+     * @return a snapshot of the (at most) n mailboxes with the most work
+     *      waiting, deepest first
+     */
+    public List<Stats> getDeepest(int n) {
+        List<Stats> stats = getStats();
+        stats.removeIf(s -> s.getDepth() == 0);
+        stats.sort(Comparator.comparingInt(Stats::getDepth).reversed());
+        return stats.size() > n ? new ArrayList<>(stats.subList(0, n)) : stats;
+    }
+
+    /**
+     * Give stalled mailboxes another go at the pool, until they have all
+     * been taken or the pool turns one away. A mailbox that is turned away
+     * again goes back to the front of the line, and waits for a timed retry.
+     */
+    private void retryStalled() {
+        Mailbox m;
+        while ( (m = stalled.poll()) != null ) {
+            if ( !m.tryExecute() ) {
+                stalled.addFirst(m);
+                scheduleRetry();
+                return;
+            }
+        }
+        retryDelay = RETRY_MIN;
+    }
+
+    /**
+     * Retry the stalled mailboxes after a while, backing off while the pool
+     * stays full: nothing else might come along to do it.
+     */
+    private void scheduleRetry() {
+        if ( retryPending.compareAndSet(false, true) ) {
+            long delay = retryDelay;
+            retryDelay = Math.min(delay * 2, RETRY_MAX);
+            try {
+                getScheduler().schedule(() -> {
+                    retryPending.set(false);
+                    retryStalled();
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                retryPending.set(false);
+                Log.log(Level.WARNING, this, STALL_TRACE, "Could not schedule a retry of stalled mailboxes: {0}", e);
+            }
+        }
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if ( managedScheduler != null ) {
+            return managedScheduler;
+        }
+        // Outside of the container (unit tests), there is no managed scheduler
+        if ( ownScheduler == null ) {
+            ownScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "mailbox-retry");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return ownScheduler;
+    }
+
+    private Executor getExecutor() {
+        if ( executor != null ) {
+            return executor;
+        }
+        // Outside of the container (unit tests), there is no managed executor
+        return fallback == null ? ForkJoinPool.commonPool() : fallback;
+    }
+
+    /**
+     * How a player's mailbox is doing
+     */
+    public static class Stats {
+        private final String userId;
+        private final int depth;
+        private final int maxDepth;
+        private final long processed;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Stats(String userId, int depth, int maxDepth, long processed, long totalNanos, long maxNanos) {
+            this.userId = userId;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.processed = processed;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        /** @return items waiting to run */
+        public int getDepth() {
+            return depth;
+        }
+
+        /** @return most items that have been waiting at once */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /** @return items run */
+        public long getProcessed() {
+            return processed;
+        }
+
+        /** @return average time to run an item, in milliseconds */
+        public double getAverageMillis() {
+            return processed == 0 ? 0 : totalNanos / 1e6 / processed;
+        }
+
+        /** @return longest time to run an item, in milliseconds */
+        public double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[depth=%d, maxDepth=%d, processed=%d, avg=%.3fms, max=%.3fms]",
+                    userId, depth, maxDepth, processed, getAverageMillis(), getMaxMillis());
+        }
+    }
+
+    private enum Offer { ACCEPTED, FULL, RETIRED }
+
+    /**
+     * One player's queue. Offers and the decision to stop draining are made
+     * holding the mailbox's lock; the work itself runs without it.
+     */
+    private class Mailbox implements Runnable {
+        private final String userId;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+
+        /** true while a pool thread owns the mailbox */
+        private boolean scheduled = false;
+        private boolean released = false;
+        private boolean retired = false;
+
+        private volatile int depth = 0;
+        private volatile int maxDepth = 0;
+        private volatile long processed = 0;
+        private volatile long totalNanos = 0;
+        private volatile long maxNanos = 0;
+
+        Mailbox(String userId) {
+            this.userId = userId;
+        }
+
+        Offer offer(Runnable work, boolean sheddable) {
+            boolean schedule;
+            synchronized (this) {
+                if ( retired ) {
+                    return Offer.RETIRED;
+                }
+                if ( sheddable && queue.size() >= limit ) {
+                    return Offer.FULL;
+                }
+                released = false;
+                queue.add(work);
+                int d = depth = queue.size();
+                if ( d > maxDepth ) {
+                    maxDepth = d;
+                    if ( d == DEEP ) {
+                        Log.log(Level.INFO, PlayerMailboxes.this, "{0} items are waiting for {1}", d, userId);
+                    }
+                }
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if ( schedule ) {
+                schedule();
+            }
+            return Offer.ACCEPTED;
+        }
+
+        void release() {
+            synchronized (this) {
+                released = true;
+                if ( !scheduled && queue.isEmpty() ) {
+                    retire();
+                }
+            }
+        }
+
+        /** Call holding the lock */
+        private void retire() {
+            retired = true;
+            mailboxes.remove(userId, this);
+            Log.log(Level.FINEST, PlayerMailboxes.this, "Mailbox closed: {0}", stats());
+        }
+
+        /**
+         * Hand the mailbox to the pool. If the pool is full (or shutting
+         * down), the mailbox stays scheduled, and waits in the stalled queue
+         * to be retried.
+         */
+        void schedule() {
+            if ( !tryExecute() ) {
+                stalled.add(this);
+                scheduleRetry();
+            }
+        }
+
+        private boolean tryExecute() {
+            try {
+                getExecutor().execute(this);
+                return true;
+            } catch (RuntimeException e) {
+                Log.log(Level.WARNING, PlayerMailboxes.this, STALL_TRACE, "Could not schedule mailbox for {0}: {1}", userId, e);
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                drain();
+            } finally {
+                // This thread is done with the mailbox: stalled ones can have a go
+                retryStalled();
+            }
+        }
+
+        private void drain() {
+            while ( true ) {
+                for (int i = 0; i < BATCH; i++) {
+                    Runnable work;
+                    synchronized (this) {
+                        work = queue.poll();
+                        depth = queue.size();
+                        if ( work == null ) {
+                            scheduled = false;
+                            if ( released ) {
+                                retire();
+                            }
+                            return;
+                        }
+                    }
+
+                    long start = System.nanoTime();
+                    try {
+                        work.run();
+                    } catch (RuntimeException e) {
+                        Log.log(Level.WARNING, PlayerMailboxes.this, "Unexpected exception handling work for " + userId, e);
+                    }
+                    record(System.nanoTime() - start);
+                }
+
+                // Give the thread back, and get back in line. If the pool won't
+                // take the mailbox right now, carry on with it on this (pool) thread.
+                if ( tryExecute() ) {
+                    return;
+                }
+            }
+        }
+
+        private void record(long elapsed) {
+            processed++;
+            totalNanos += elapsed;
+            if ( elapsed > maxNanos ) {
+                maxNanos = elapsed;
+            }
+            if ( elapsed > TimeUnit.MILLISECONDS.toNanos(SLOW_WORK) ) {
+                Log.log(Level.INFO, PlayerMailboxes.this, "Handling a message for {0} took {1}ms, {2} more waiting",
+                        userId, TimeUnit.NANOSECONDS.toMillis(elapsed), depth);
+            }
+        }
+
+        Stats stats() {
+            return new Stats(userId, depth, maxDepth, processed, totalNanos, maxNanos);
+        }
+    }
+}
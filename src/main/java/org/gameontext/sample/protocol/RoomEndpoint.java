@@ -17,23 +17,29 @@ package org.gameontext.sample.protocol;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 import java.util.logging.Level;
 
 import javax.inject.Inject;
+import javax.json.JsonNumber;
+import javax.json.JsonValue;
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCodes;
-import javax.websocket.EncodeException;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
-import javax.websocket.RemoteEndpoint.Basic;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
 
 import org.gameontext.sample.Log;
+import org.gameontext.sample.LogSampler;
 import org.gameontext.sample.RoomImplementation;
+import org.gameontext.sample.StartupTimings;
+import org.gameontext.sample.metrics.Metrics;
 
 /**
  * This is the WebSocket endpoint for a room. Java EE WebSockets
@@ -41,23 +47,39 @@ import org.gameontext.sample.RoomImplementation;
  * will be created for every connected client.
  * https://book.game-on.org/microservices/WebSocketProtocol.html
  */
-@ServerEndpoint(value = "/room", decoders = MessageDecoder.class, encoders = MessageEncoder.class)
+@ServerEndpoint(value = "/room", decoders = { MessageDecoder.class, MessageBinaryDecoder.class })
 public class RoomEndpoint {
 
+    /** Connections come and go with the mediator: keep that from swamping the log */
+    private static final LogSampler OPEN_TRACE = LogSampler.fromEnv("connection opened");
+    private static final LogSampler CLOSE_TRACE = LogSampler.fromEnv("connection closed");
+
     @Inject
     protected RoomImplementation roomImplementation;
 
+    @Inject
+    protected SessionRegistry sessionRegistry;
+
+    @Inject
+    protected PlayerMailboxes mailboxes;
+
     @OnOpen
     public void onOpen(Session session, EndpointConfig ec) {
-        Log.log(Level.FINE, this, "A new connection has been made to the room.");
+        Log.log(Level.FINE, this, OPEN_TRACE, "A new connection has been made to the room.");
+        Metrics.openSessions.inc();
 
-        // All we have to do in onOpen is send the acknowledgement
-        sendMessage(session, Message.ACK_MSG);
+        // All we have to do in onOpen is send the acknowledgement (only to the new session)
+        deliver(Collections.singleton(session), Message.ACK_MSG);
+        StartupTimings.reached(StartupTimings.Milestone.firstAck);
     }
 
     @OnClose
     public void onClose(Session session, CloseReason r) {
-        Log.log(Level.FINE, this, "A connection to the room has been closed with reason " + r);
+        Log.log(Level.FINE, this, CLOSE_TRACE, "A connection to the room has been closed with reason {0}", r);
+        Metrics.openSessions.dec();
+        for (String userId : sessionRegistry.removeSession(session)) {
+            mailboxes.release(userId);
+        }
     }
 
     @OnError
@@ -73,60 +95,133 @@ public class RoomEndpoint {
 
     /**
      * The hook into the interesting room stuff.
+     * <p>
+     * Messages are queued for the player that sent them, and handled in
+     * order on a shared pool: see {@link PlayerMailboxes}. Messages from
+     * different players are handled concurrently, even though they all
+     * arrive over the same (mediator) connection. When a player's mailbox
+     * is full, what they say and do in the room is turned away; arriving
+     * and leaving are always handled.
+     * </p>
+     * <p>
+     * Text and binary frames both arrive here: the container picks
+     * {@link MessageDecoder} or {@link MessageBinaryDecoder} based on the
+     * kind of frame.
+     * </p>
      * @param session
      * @param message
      * @throws IOException
      */
     @OnMessage
     public void receiveMessage(Session session, Message message) throws IOException {
-        roomImplementation.handleMessage(session, message, this);
+        Metrics.framesReceived.inc(message.getTarget().name());
+        mailboxes.submit(message.getUserId(), () -> handleMessage(session, message),
+                message.getTarget() == Message.Target.room);
+    }
+
+    private void handleMessage(Session session, Message message) {
+        long start = System.nanoTime();
+        try {
+            switch(message.getTarget()) {
+                case roomHello:
+                case roomJoin:
+                    // Know where the player is, and how to talk to them, before replying
+                    sessionRegistry.add(message.getUserId(), session);
+                    negotiate(session, message);
+                    roomImplementation.handleMessage(session, message, this);
+                    break;
+                case roomGoodbye:
+                case roomPart:
+                    roomImplementation.handleMessage(session, message, this);
+                    if ( sessionRegistry.remove(message.getUserId(), session) ) {
+                        mailboxes.release(message.getUserId());
+                    }
+                    break;
+                default:
+                    roomImplementation.handleMessage(session, message, this);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // Handled as it would have been on the container's thread
+            onError(session, e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            Metrics.handleLatency.observe(message.getTarget().name(), elapsed);
+            Metrics.recentHandleLatency.record(elapsed);
+        }
+    }
+
+    /**
+     * The {@code version} in a hello or join is the protocol version the
+     * mediator picked from the ones offered in the ack. The first hello or
+     * join on a session settles its wire format: version 3 sessions are sent
+     * binary frames from then on, starting with the reply to that message.
+     * Anything else (including no version at all) is text. Every player
+     * shares the mediator's session, so a later message asking for a
+     * different version is logged rather than switching the format for all
+     * of them.
+     * @param session Session the message arrived on
+     * @param message roomHello or roomJoin
+     */
+    void negotiate(Session session, Message message) {
+        JsonValue version = message.getParsedBody().get("version");
+        boolean requested = version instanceof JsonNumber
+                && ((JsonNumber) version).longValue() >= BinaryFrame.VERSION;
+
+        if ( SessionSender.get(session).negotiate(requested) != requested ) {
+            Log.log(Level.INFO, this, "Session {0} already uses {1} frames: ignoring version {2} from {3}",
+                    session.getId(), requested ? "text" : "binary", version, message.getUserId());
+        }
     }
 
     /**
-     * Simple broadcast: loop over all mentioned sessions to send the message
+     * Send the message to the sessions it is meant for.
      * <p>
-     * We are effectively always broadcasting: a player could be connected
-     * to more than one device, and that could correspond to more than one connected
-     * session. Allow topic filtering on the receiving side (Mediator and browser)
-     * to filter out and display messages.
+     * Messages for everyone ({@code *}) are broadcast to all open sessions.
+     * Messages for a specific player only go to the sessions that player is
+     * connected through (a player could be connected to more than one device,
+     * and that could correspond to more than one connected session). If we don't
+     * know of any sessions for the player, fall back to broadcasting, and allow
+     * topic filtering on the receiving side (Mediator and browser) to filter out
+     * and display messages.
+     * <p>
+     * The message is encoded once, and written to each session asynchronously:
+     * this method does not wait for the writes to complete, and a slow receiver
+     * does not hold up the others. Slow or failed writes are reported once
+     * the broadcast completes.
      *
      * @param session Target session (used to find all related sessions)
      * @param message Message to send
-     * @see #sendRemoteTextMessage(Session, Message)
+     * @see Broadcast
+     * @see SessionRegistry
      */
     public void sendMessage(Session session, Message message) {
-        for (Session s : session.getOpenSessions()) {
-            sendMessageToSession(s, message);
+        Set<Session> sessions = null;
+        if ( !message.isBroadcast() ) {
+            sessions = sessionRegistry.getSessions(message.getTargetId());
+        }
+        if ( sessions == null || sessions.isEmpty() ) {
+            sessions = session.getOpenSessions();
         }
+        deliver(sessions, message);
     }
 
-    /**
-     * Try sending the {@link Message} using
-     * {@link Session#getBasicRemote()}, {@link Basic#sendObject(Object)}.
-     *
-     * @param session Session to send the message on
-     * @param message Message to send
-     * @return true if send was successful, or false if it failed
-     */
-    private boolean sendMessageToSession(Session session, Message message) {
-        if (session.isOpen()) {
-            try {
-                session.getBasicRemote().sendObject(message);
-                return true;
-            } catch (EncodeException e) {
-                // Something was wrong encoding this message, but the connection
-                // is likely just fine.
-                Log.log(Level.FINE, this, "Unexpected condition writing message", e);
-            } catch (IOException ioe) {
-                // An IOException, on the other hand, suggests the connection is
-                // in a bad state.
-                Log.log(Level.FINE, this, "Unexpected condition writing message", ioe);
-                tryToClose(session, new CloseReason(CloseCodes.UNEXPECTED_CONDITION, trimReason(ioe.toString())));
-            }
+    private void deliver(Collection<Session> sessions, Message message) {
+        // Players can come and go while we're sending
+        Session[] targets = sessions.toArray(new Session[sessions.size()]);
+        Broadcast broadcast = new Broadcast(this, message, targets.length);
+        for (Session s : targets) {
+            broadcast.sendTo(s);
         }
-        return false;
     }
 
+    /**
+     * @param reason Why the connection is being closed
+     * @return a {@code CloseReason} for an unexpected condition
+     */
+    CloseReason unexpectedCondition(String reason) {
+        return new CloseReason(CloseCodes.UNEXPECTED_CONDITION, trimReason(reason));
+    }
 
     /**
      * @param message String to trim
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.websocket.Session;
+
+import org.gameontext.sample.Log;
+
+/**
+ * Which sessions each player is connected through.
+ * <p>
+ * Players are added when they say hello (or rejoin), and removed when they
+ * leave, part, or their session closes. Messages addressed to a single player
+ * are only sent to that player's sessions.
+ * </p>
+ * <p>
+ * Hellos are handled on a mailbox thread, so one can be handled after its
+ * session has already closed. Once a session has been
+ * {@linkplain #removeSession(Session) removed}, nobody can be added to it again.
+ * </p>
+ */
+@ApplicationScoped
+public class SessionRegistry {
+
+    /** Key for the session's players in the session's user properties */
+    private static final String KEY = SessionRegistry.class.getName();
+
+    private final ConcurrentHashMap<String, Set<Session>> sessionsByUser = new ConcurrentHashMap<>();
+
+    /**
+     * @param userId Player
+     * @param session Session the player is connected through
+     * @return false if the session has closed, and the player was not added
+     */
+    public boolean add(String userId, Session session) {
+        if ( userId == null ) {
+            return false;
+        }
+        Players players = players(session);
+        synchronized (players) {
+            if ( players.closed || !session.isOpen() ) {
+                Log.log(Level.FINE, this, "Player {0} not added: session {1} has closed", userId, session.getId());
+                return false;
+            }
+            sessionsByUser.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(session);
+            players.ids.add(userId);
+        }
+        Log.log(Level.FINEST, this, "Player {0} connected via session {1}", userId, session.getId());
+        return true;
+    }
+
+    /**
+     * @param userId Player
+     * @param session Session the player is no longer connected through
+     * @return true if the player has no sessions left
+     */
+    public boolean remove(String userId, Session session) {
+        if ( userId == null ) {
+            return false;
+        }
+        players(session).ids.remove(userId);
+        return sessionsByUser.computeIfPresent(userId, (k, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        }) == null;
+    }
+
+    /**
+     * Forget all players connected through a (closed) session
+     * @param session Closed session
+     * @return players that have no sessions left
+     */
+    public List<String> removeSession(Session session) {
+        List<String> gone = new ArrayList<>();
+        Players players = players(session);
+        synchronized (players) {
+            // No more players on this session, even if their hello is still queued
+            players.closed = true;
+            for (String userId : players.ids) {
+                if ( remove(userId, session) ) {
+                    gone.add(userId);
+                }
+            }
+        }
+        return gone;
+    }
+
+    /**
+     * @param userId Player
+     * @return open sessions the player is connected through, possibly empty
+     */
+    public Set<Session> getSessions(String userId) {
+        Set<Session> sessions = sessionsByUser.get(userId);
+        return sessions == null ? Collections.emptySet() : sessions;
+    }
+
+    /**
+     * @return number of players with at least one session
+     */
+    public int getPlayerCount() {
+        return sessionsByUser.size();
+    }
+
+    private Players players(Session session) {
+        Players players = (Players) session.getUserProperties().get(KEY);
+        if ( players == null ) {
+            synchronized (session) {
+                players = (Players) session.getUserProperties().get(KEY);
+                if ( players == null ) {
+                    players = new Players();
+                    session.getUserProperties().put(KEY, players);
+                }
+            }
+        }
+        return players;
+    }
+
+    /**
+     * Players connected through a session. Adding players and closing the
+     * session are done holding its lock.
+     */
+    private static class Players {
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        boolean closed = false;
+    }
+}
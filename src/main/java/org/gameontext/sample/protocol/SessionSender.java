@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.sample.Log;
+
+/**
+ * Outbound frames for one session.
+ * <p>
+ * The async remote endpoint only allows one write to be outstanding at a time,
+ * so frames are queued here and the next one is written when the previous
+ * write completes. Nothing waits for a write to finish: a slow receiver
+ * only delays its own frames.
+ * </p>
+ * <p>
+ * The queue is bounded. Once it reaches the high watermark, the oldest
+ * droppable (chat) frames are discarded to make room: other frames, like
+ * {@code playerLocation}, are never dropped. A session that stays above the
+ * high watermark (without draining back to the low watermark) for longer
+ * than the grace period, or that reaches the hard limit, is closed.
+ * </p>
+ * <p>
+ * The limits are read from server.xml when the application starts: see
+ * {@link OutboundLimits}. Senders created before then use the defaults.
+ * </p>
+ * <p>
+ * Sessions that negotiate protocol version 3 are sent binary frames
+ * (see {@link BinaryFrame}), everything else is sent text frames.
+ * </p>
+ */
+class SessionSender {
+
+    /** Key for the sender in the session's user properties */
+    private static final String KEY = SessionSender.class.getName();
+
+    /** Milliseconds allowed for each write before it fails */
+    static final long SEND_TIMEOUT = 5000;
+
+    /** Default depth at which chat frames start being dropped */
+    static final int HIGH_WATERMARK = 256;
+
+    /** Default depth at which a session is no longer considered slow */
+    static final int LOW_WATERMARK = 64;
+
+    /** Sessions that reach this many times the high watermark are closed */
+    static final int HARD_LIMIT_FACTOR = 4;
+
+    /** Default depth at which sessions are closed */
+    static final int HARD_LIMIT = HIGH_WATERMARK * HARD_LIMIT_FACTOR;
+
+    /** Default milliseconds a session can stay over the high watermark before it is closed */
+    static final int GRACE_PERIOD = 10000;
+
+    /** Limits for new senders */
+    private static volatile Limits defaultLimits = new Limits(HIGH_WATERMARK, LOW_WATERMARK, GRACE_PERIOD);
+
+    /**
+     * Set the limits for senders created from now on
+     * @param high Depth at which chat frames start being dropped
+     * @param low Depth at which a session is no longer considered slow
+     * @param graceMillis Time a session can stay over the high watermark before it is closed
+     */
+    static void configure(int high, int low, int graceMillis) {
+        defaultLimits = new Limits(high, low, graceMillis);
+    }
+
+    /**
+     * @param session WebSocket session
+     * @return the sender for the session, created on first use
+     */
+    static SessionSender get(Session session) {
+        SessionSender sender = (SessionSender) session.getUserProperties().get(KEY);
+        if ( sender == null ) {
+            synchronized (session) {
+                sender = (SessionSender) session.getUserProperties().get(KEY);
+                if ( sender == null ) {
+                    sender = new SessionSender(session);
+                    session.getUserProperties().put(KEY, sender);
+                }
+            }
+        }
+        return sender;
+    }
+
+    /**
+     * Reported to the send handler of a frame that was dropped rather
+     * than written.
+     */
+    static class DroppedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        DroppedException() {
+            super("Dropped: receiver is not keeping up", null, false, false);
+        }
+    }
+
+    private final Session session;
+    private final Async remote;
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger(0);
+    private final AtomicBoolean sending = new AtomicBoolean(false);
+
+    /** When the queue went over the high watermark, or 0 */
+    private volatile long overSince = 0;
+    private volatile boolean evicted = false;
+
+    /** Wire format: null until the session negotiates one, then true for binary */
+    private final AtomicReference<Boolean> binary = new AtomicReference<>();
+
+    private final Limits limits;
+
+    private SessionSender(Session session) {
+        this.limits = defaultLimits;
+        this.session = session;
+        this.remote = session.getAsyncRemote();
+        this.remote.setSendTimeout(SEND_TIMEOUT);
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * @return true if the session should be sent binary frames
+     */
+    boolean isBinary() {
+        return Boolean.TRUE.equals(binary.get());
+    }
+
+    /**
+     * The wire format is settled once per session: every player behind a
+     * mediator shares its connection, so later requests don't change it.
+     * @param requested true if the session asks for binary frames
+     * @return true if the session is sent binary frames, which is only
+     *         different from what was requested if the format was already settled
+     */
+    boolean negotiate(boolean requested) {
+        binary.compareAndSet(null, requested);
+        return binary.get();
+    }
+
+    /**
+     * @return number of frames waiting to be written
+     */
+    int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Queue a frame for the session.
+     * @param frame Encoded message
+     * @param droppable true if the frame may be dropped when the session isn't keeping up
+     * @param handler Notified when the write completes, fails, or the frame is dropped
+     */
+    void send(String frame, boolean droppable, SendHandler handler) {
+        enqueue(frame, droppable, handler);
+    }
+
+    /**
+     * Queue a binary frame for the session.
+     * @param frame Encoded message: must not be modified once queued
+     * @param droppable true if the frame may be dropped when the session isn't keeping up
+     * @param handler Notified when the write completes, fails, or the frame is dropped
+     */
+    void send(byte[] frame, boolean droppable, SendHandler handler) {
+        enqueue(frame, droppable, handler);
+    }
+
+    private void enqueue(Object frame, boolean droppable, SendHandler handler) {
+        if ( evicted ) {
+            handler.onResult(new SendResult(new IllegalStateException("Session was closed: receiver was not keeping up")));
+            return;
+        }
+
+        queue.add(new Pending(frame, droppable, handler));
+        int d = depth.incrementAndGet();
+        OutboundStats.queued.increment();
+        OutboundStats.recordDepth(d);
+
+        if ( d >= limits.high ) {
+            overLimit(d);
+        }
+
+        if ( sending.compareAndSet(false, true) ) {
+            sendNext();
+        }
+    }
+
+    private void overLimit(int d) {
+        long now = System.nanoTime();
+        if ( overSince == 0 ) {
+            overSince = now;
+            Log.log(Level.FINE, this, "Session {0} is not keeping up: {1} frames queued", session.getId(), d);
+        }
+
+        if ( d >= limits.hardLimit || now - overSince > limits.grace ) {
+            evict(d);
+            return;
+        }
+
+        // Make room by dropping the oldest chatter
+        Iterator<Pending> i = queue.iterator();
+        while ( i.hasNext() ) {
+            Pending p = i.next();
+            if ( p.droppable && queue.remove(p) ) {
+                dequeued();
+                OutboundStats.dropped.increment();
+                p.handler.onResult(new SendResult(new DroppedException()));
+                return;
+            }
+        }
+    }
+
+    private void evict(int d) {
+        if ( evicted ) {
+            return;
+        }
+        evicted = true;
+        OutboundStats.evicted.increment();
+        Log.log(Level.INFO, this, "Closing session {0}: {1} frames queued", session.getId(), d);
+
+        try {
+            session.close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Receiver is not keeping up"));
+        } catch (IOException e) {
+            Log.log(Level.FINEST, this, "Exception closing session", e);
+        }
+
+        // Anything still queued is not going anywhere
+        Pending p;
+        while ( (p = queue.poll()) != null ) {
+            dequeued();
+            p.handler.onResult(new SendResult(new IllegalStateException("Session was closed: receiver was not keeping up")));
+        }
+    }
+
+    private void dequeued() {
+        int d = depth.decrementAndGet();
+        OutboundStats.queued.decrement();
+        if ( d <= limits.low ) {
+            overSince = 0;
+        }
+    }
+
+    /**
+     * Write queued frames until one write is actually in progress, or the
+     * queue is empty. Frames for a closed session, writes that fail straight
+     * away, and writes the container completes before returning are all
+     * dealt with here, in a loop: the completion handler of a write only
+     * continues the drain itself if the write completed asynchronously.
+     */
+    private void sendNext() {
+        while ( true ) {
+            Pending next = queue.poll();
+            if ( next == null ) {
+                sending.set(false);
+                // Something may have been queued between the poll and the reset
+                if ( !queue.isEmpty() && sending.compareAndSet(false, true) ) {
+                    continue;
+                }
+                return;
+            }
+            dequeued();
+
+            if ( !session.isOpen() ) {
+                next.handler.onResult(new SendResult(new IllegalStateException("Session is closed")));
+                continue;
+            }
+
+            Write write = new Write(next);
+            try {
+                if ( next.frame instanceof byte[] ) {
+                    remote.sendBinary(ByteBuffer.wrap((byte[]) next.frame), write);
+                } else {
+                    remote.sendText((String) next.frame, write);
+                }
+            } catch (RuntimeException e) {
+                next.handler.onResult(new SendResult(e));
+                continue;
+            }
+
+            if ( !write.handOff() ) {
+                // Still in progress: its completion handler takes over
+                return;
+            }
+        }
+    }
+
+    /**
+     * How deep a sender's queue can get
+     */
+    static final class Limits {
+        final int high;
+        final int low;
+        final int hardLimit;
+        final long grace;
+
+        Limits(int high, int low, int graceMillis) {
+            this.high = Math.max(high, 1);
+            this.low = Math.min(Math.max(low, 0), this.high);
+            this.hardLimit = this.high * HARD_LIMIT_FACTOR;
+            this.grace = TimeUnit.MILLISECONDS.toNanos(graceMillis);
+        }
+
+        @Override
+        public String toString() {
+            return "high=" + high + ", low=" + low + ", hardLimit=" + hardLimit
+                    + ", grace=" + TimeUnit.NANOSECONDS.toMillis(grace) + "ms";
+        }
+    }
+
+    /**
+     * @return the limits senders are created with
+     */
+    static Limits getDefaultLimits() {
+        return defaultLimits;
+    }
+
+    /**
+     * Completion handler for one write. Whichever happens second, the write
+     * completing or the call that started it returning, carries on with the
+     * next frame.
+     */
+    private class Write implements SendHandler {
+        private final Pending pending;
+        private final AtomicBoolean other = new AtomicBoolean(false);
+
+        Write(Pending pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public void onResult(SendResult result) {
+            if ( result.isOK() ) {
+                OutboundStats.sent.increment();
+            }
+            pending.handler.onResult(result);
+            if ( handOff() ) {
+                sendNext();
+            }
+        }
+
+        /**
+         * @return true if the other side has already finished, and the
+         *         caller should carry on with the next frame
+         */
+        boolean handOff() {
+            return other.getAndSet(true);
+        }
+    }
+
+    private static class Pending {
+        /** String for a text frame, byte[] for a binary one */
+        final Object frame;
+        final boolean droppable;
+        final SendHandler handler;
+
+        Pending(Object frame, boolean droppable, SendHandler handler) {
+            this.frame = frame;
+            this.droppable = droppable;
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+import org.gameontext.sample.Log;
+
+/**
+ * Stops calling an upstream service that keeps failing.
+ * <p>
+ * While <b>closed</b>, calls go through and their outcomes are counted in a
+ * rolling window (made of buckets, so old outcomes drop off a bucket at a
+ * time). Once the window has seen enough calls and the share of failures
+ * reaches the threshold, the breaker <b>opens</b>: calls are refused straight
+ * away, without waiting on the service. After the open period a few trial
+ * calls are let through (<b>half-open</b>). If they all succeed the breaker
+ * closes again, if any fails it opens for another period.
+ * </p>
+ * <p>
+ * Callers ask for {@link #tryAcquire() permission} before each call, and
+ * report how it went with {@link #onSuccess()} or {@link #onFailure()}.
+ * </p>
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        closed, open, half_open
+    }
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long bucketNanos;
+    private final long openNanos;
+    private final int trialCalls;
+    private final LongSupplier clock;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    /** Rolling window: outcomes per bucket, indexed by bucket number modulo length */
+    private final long[] bucketIds;
+    private final int[] successes;
+    private final int[] failures;
+
+    private State state = State.closed;
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    /**
+     * @param name Name of the upstream service, for logging
+     * @param failureRateThreshold Share of failed calls (0-1) that opens the breaker
+     * @param minimumCalls Calls the window must have seen before the breaker can open
+     * @param window Length of the rolling window
+     * @param buckets Number of buckets the window is divided into
+     * @param openFor How long the breaker stays open before trying again
+     * @param trialCalls Calls let through while half-open
+     * @param unit Unit for window and openFor
+     */
+    public CircuitBreaker(String name, double failureRateThreshold, int minimumCalls,
+            long window, int buckets, long openFor, int trialCalls, TimeUnit unit) {
+        this(name, failureRateThreshold, minimumCalls, window, buckets, openFor, trialCalls, unit, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, double failureRateThreshold, int minimumCalls,
+            long window, int buckets, long openFor, int trialCalls, TimeUnit unit, LongSupplier clock) {
+        if ( buckets < 1 || minimumCalls < 1 || trialCalls < 1 ) {
+            throw new IllegalArgumentException("buckets, minimumCalls and trialCalls must be at least 1");
+        }
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.bucketNanos = Math.max(1, unit.toNanos(window) / buckets);
+        this.openNanos = unit.toNanos(openFor);
+        this.trialCalls = trialCalls;
+        this.clock = clock;
+        this.bucketIds = new long[buckets];
+        this.successes = new int[buckets];
+        this.failures = new int[buckets];
+        Arrays.fill(bucketIds, EMPTY);
+    }
+
+    /**
+     * @return true if the call may go ahead; the outcome must then be reported
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case open:
+                if ( clock.getAsLong() - openedAt < openNanos ) {
+                    return false;
+                }
+                transition(State.half_open);
+                trialsStarted = 0;
+                trialsSucceeded = 0;
+                // fall through
+            case half_open:
+                if ( trialsStarted >= trialCalls ) {
+                    return false;
+                }
+                trialsStarted++;
+                return true;
+            case closed:
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * The call went ahead but the outcome says nothing about the service
+     * (e.g. it was abandoned): give the permission back.
+     */
+    public synchronized void release() {
+        if ( state == State.half_open && trialsStarted > 0 ) {
+            trialsStarted--;
+        }
+    }
+
+    /**
+     * The call succeeded
+     */
+    public synchronized void onSuccess() {
+        switch (state) {
+            case half_open:
+                if ( ++trialsSucceeded >= trialCalls ) {
+                    reset();
+                    transition(State.closed);
+                }
+                break;
+            case closed:
+                successes[currentBucket()]++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The call failed
+     */
+    public synchronized void onFailure() {
+        switch (state) {
+            case half_open:
+                open();
+                break;
+            case closed:
+                failures[currentBucket()]++;
+
+                long current = Math.floorDiv(clock.getAsLong(), bucketNanos);
+                int s = 0, f = 0;
+                for (int i = 0; i < bucketIds.length; i++) {
+                    if ( bucketIds[i] != EMPTY && current - bucketIds[i] < bucketIds.length ) {
+                        s += successes[i];
+                        f += failures[i];
+                    }
+                }
+                if ( s + f >= minimumCalls && f >= failureRateThreshold * (s + f) ) {
+                    open();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the current state (an open breaker whose period has passed
+     *      still reports open until the next call)
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return milliseconds until an open breaker lets a trial call through, or 0
+     */
+    public synchronized long getRetryAfter() {
+        if ( state != State.open ) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (clock.getAsLong() - openedAt)));
+    }
+
+    private void open() {
+        openedAt = clock.getAsLong();
+        reset();
+        transition(State.open);
+    }
+
+    private void reset() {
+        Arrays.fill(bucketIds, EMPTY);
+        Arrays.fill(successes, 0);
+        Arrays.fill(failures, 0);
+    }
+
+    private void transition(State next) {
+        if ( state != next ) {
+            Log.log(next == State.open ? Level.WARNING : Level.INFO, this,
+                    "Circuit breaker for {0}: {1} -> {2}", name, state, next);
+            state = next;
+        }
+    }
+
+    /**
+     * @return index of the current bucket, which is cleared first if it
+     *      still holds the counts of an older bucket
+     */
+    private int currentBucket() {
+        long id = Math.floorDiv(clock.getAsLong(), bucketNanos);
+        int i = (int) Math.floorMod(id, (long) bucketIds.length);
+        if ( bucketIds[i] != id ) {
+            bucketIds[i] = id;
+            successes[i] = 0;
+            failures[i] = 0;
+        }
+        return i;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker[" + name + ", " + state + "]";
+    }
+}
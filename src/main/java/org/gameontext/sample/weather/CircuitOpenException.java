@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.io.IOException;
+
+/**
+ * The weather service has been failing: the lookup wasn't attempted.
+ *
+ * @see CircuitBreaker
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfter;
+
+    public CircuitOpenException(long retryAfter) {
+        super("Weather service unavailable, retry in " + retryAfter + "ms");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return milliseconds until the weather service will be tried again
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Recent observations, by zip code.
+ * <p>
+ * Entries live for a fixed time (observations only change every few minutes),
+ * and the least recently used entry is evicted once the cache is full.
+ * Concurrent misses for the same zip code share one upstream request.
+ * Failed lookups are not cached.
+ * </p>
+ * <p>
+ * A lookup that completes adds its entry before it stops being pending, so
+ * a miss that finds nothing pending checks the entries again once it has
+ * registered its own lookup: the one it missed may have just completed.
+ * </p>
+ */
+public class WeatherCache {
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final LongSupplier clock;
+
+    /** Completed lookups, in access order. Guarded by itself. */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /** Lookups that are on their way: later requests for the same zip code join these */
+    private final ConcurrentHashMap<String, CompletableFuture<WeatherObservation>> pending;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param ttl How long an observation is served from the cache
+     * @param unit Unit for ttl
+     * @param maxSize Maximum number of zip codes to remember
+     */
+    public WeatherCache(long ttl, TimeUnit unit, int maxSize) {
+        this(ttl, unit, maxSize, System::nanoTime);
+    }
+
+    WeatherCache(long ttl, TimeUnit unit, int maxSize, LongSupplier clock) {
+        this(ttl, unit, maxSize, clock, new ConcurrentHashMap<>());
+    }
+
+    WeatherCache(long ttl, TimeUnit unit, int maxSize, LongSupplier clock,
+            ConcurrentHashMap<String, CompletableFuture<WeatherObservation>> pending) {
+        if ( maxSize < 1 ) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.pending = pending;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > WeatherCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Return the cached observation for a zip code, or use the loader to fetch it.
+     *
+     * @param zipCode Zip code to look up
+     * @param loader Function that starts an upstream lookup. It is called at most
+     *        once at a time per zip code.
+     * @return future that completes with the observation
+     */
+    public CompletableFuture<WeatherObservation> get(String zipCode, Function<String, CompletableFuture<WeatherObservation>> loader) {
+        long now = clock.getAsLong();
+
+        WeatherObservation cached = cached(zipCode, now);
+        if ( cached != null ) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        misses.increment();
+
+        CompletableFuture<WeatherObservation> mine = new CompletableFuture<>();
+        CompletableFuture<WeatherObservation> existing = pending.putIfAbsent(zipCode, mine);
+        if ( existing != null ) {
+            coalesced.increment();
+            return existing;
+        }
+
+        // A lookup may have completed since the entries were checked
+        cached = cached(zipCode, now);
+        if ( cached != null ) {
+            coalesced.increment();
+            pending.remove(zipCode, mine);
+            mine.complete(cached);
+            return mine;
+        }
+
+        CompletableFuture<WeatherObservation> upstream;
+        try {
+            upstream = loader.apply(zipCode);
+        } catch (RuntimeException ex) {
+            pending.remove(zipCode, mine);
+            mine.completeExceptionally(ex);
+            return mine;
+        }
+
+        upstream.whenComplete((observation, t) -> {
+            if ( t == null ) {
+                synchronized (entries) {
+                    entries.put(zipCode, new Entry(observation, clock.getAsLong()));
+                }
+            }
+            pending.remove(zipCode, mine);
+
+            if ( t == null ) {
+                mine.complete(observation);
+            } else {
+                mine.completeExceptionally(t);
+            }
+        });
+
+        return mine;
+    }
+
+    /**
+     * @return the cached observation for the zip code, or null if there is
+     *         none (expired entries are removed)
+     */
+    private WeatherObservation cached(String zipCode, long now) {
+        synchronized (entries) {
+            Entry e = entries.get(zipCode);
+            if ( e != null ) {
+                if ( now - e.created < ttlNanos ) {
+                    return e.observation;
+                }
+                entries.remove(zipCode);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups that were not in the cache (or had expired)
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of misses that joined a lookup already in flight
+     *         rather than making their own upstream request
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return number of cached observations (including expired ones that have
+     *         not yet been evicted)
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherCache[size=" + size() + ", maxSize=" + maxSize
+                + ", ttl=" + TimeUnit.NANOSECONDS.toSeconds(ttlNanos) + "s"
+                + ", hits=" + hits + ", misses=" + misses + ", coalesced=" + coalesced + "]";
+    }
+
+    private static class Entry {
+        final WeatherObservation observation;
+        final long created;
+
+        Entry(WeatherObservation observation, long created) {
+            this.observation = observation;
+            this.created = created;
+        }
+    }
+}
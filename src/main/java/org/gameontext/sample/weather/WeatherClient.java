@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.gameontext.sample.JsonFieldExtractor;
+import org.gameontext.sample.Log;
+import org.gameontext.sample.RoomExecutor;
+import org.gameontext.sample.metrics.Metrics;
+
+/**
+ * Looks up current conditions from the Weather Company data service.
+ * <p>
+ * Lookups never run on the caller's thread: {@link #lookup(String)} hands the
+ * blocking HTTP request to the {@link RoomExecutor} and returns a
+ * {@link CompletableFuture} that completes when the observation has been read.
+ * The number of lookups in flight is bounded, so a slow weather service can't
+ * soak up all of the server's threads, and a {@link CircuitBreaker} stops
+ * calling a service that keeps failing, so lookups fail fast until it recovers.
+ * </p>
+ */
+@ApplicationScoped
+public class WeatherClient {
+
+    /** Name of the weather service in metrics */
+    static final String SERVICE = "weather";
+
+    /** The Weather Company data service */
+    static final String DEFAULT_URL = "https://twcservice.mybluemix.net/api/weather/v1";
+
+    /** Site-Based Current Conditions by Postal Code: the zip code goes between the two */
+    private static final String OBSERVATION_PATH = "/location/";
+    private static final String OBSERVATION_QUERY = "%3A4%3AUS/observations.json?language=en-US&units=e";
+
+    /** The parts of the observation the room reports */
+    static final JsonFieldExtractor OBSERVATION_FIELDS = new JsonFieldExtractor(
+            "observation.obs_name", "observation.wx_phrase", "observation.temp",
+            "observation.wdir_cardinal", "observation.wspd");
+
+    /** uid/password will be unique to the Weather Company service you setup */
+    private static final String UID = "XXXXXXXXXXXXXXXXXXXXXXXXXXXXX";
+    private static final String PASSWORD = "YYYYYYYYYYYYYYYYY";
+
+    /** The credentials don't change: encode them once */
+    static final String AUTHORIZATION = "Basic "
+            + Base64.getEncoder().encodeToString((UID + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+
+    /** Milliseconds to wait for the connection to the weather service */
+    static final int CONNECT_TIMEOUT = 2000;
+
+    /** Milliseconds to wait for the weather service to respond */
+    static final int READ_TIMEOUT = 5000;
+
+    /**
+     * Most of a leftover response body read to keep the connection: past
+     * this, a new connection is cheaper than reading the rest
+     */
+    static final int MAX_DRAIN = 4096;
+
+    /** Maximum number of lookups allowed to be waiting on the weather service */
+    static final int MAX_IN_FLIGHT = 4;
+
+    /** Share of failed lookups in the window that opens the circuit breaker */
+    static final double BREAKER_FAILURE_RATE = 0.5;
+
+    /** Lookups the window must have seen before the breaker can open */
+    static final int BREAKER_MINIMUM_CALLS = 5;
+
+    /** Seconds of lookups the breaker looks back over */
+    static final int BREAKER_WINDOW = 60;
+
+    /** Seconds the breaker stays open before trying the service again */
+    static final int BREAKER_OPEN = 30;
+
+    /** Default number of seconds an observation is cached */
+    static final int DEFAULT_CACHE_TTL = 300;
+
+    /** Default number of zip codes to cache */
+    static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * Where blocking work runs: see {@link RoomExecutor}
+     */
+    @Inject
+    protected RoomExecutor executor;
+
+    /**
+     * Base URL of the weather service, for a local stub or a different region.
+     * This is set via the environment variable WEATHER_URL. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "weatherUrl")
+    protected String weatherUrl;
+
+    /**
+     * Seconds to cache an observation.
+     * This is set via the environment variable WEATHER_CACHE_TTL. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "weatherCacheTtl")
+    protected String cacheTtl;
+
+    /**
+     * Number of zip codes to cache.
+     * This is set via the environment variable WEATHER_CACHE_SIZE. This value is read
+     * in server.xml.
+     */
+    @Resource(lookup = "weatherCacheSize")
+    protected String cacheSize;
+
+    /** Bulkhead: lookups beyond this are turned away rather than queued */
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    private final CircuitBreaker breaker = new CircuitBreaker("weather", BREAKER_FAILURE_RATE, BREAKER_MINIMUM_CALLS,
+            BREAKER_WINDOW, 6, BREAKER_OPEN, 1, TimeUnit.SECONDS);
+
+    private WeatherCache cache = new WeatherCache(DEFAULT_CACHE_TTL, TimeUnit.SECONDS, DEFAULT_CACHE_SIZE);
+
+    /** Everything in the observation URL before the zip code */
+    private String observationPrefix = DEFAULT_URL + OBSERVATION_PATH;
+
+    @PostConstruct
+    protected void postConstruct() {
+        if ( weatherUrl != null && !weatherUrl.contains("WEATHER_URL") ) {
+            String base = weatherUrl.trim();
+            observationPrefix = (base.endsWith("/") ? base.substring(0, base.length() - 1) : base) + OBSERVATION_PATH;
+        }
+        int ttl = parseConfig(cacheTtl, "WEATHER_CACHE_TTL", DEFAULT_CACHE_TTL);
+        int size = parseConfig(cacheSize, "WEATHER_CACHE_SIZE", DEFAULT_CACHE_SIZE);
+        cache = new WeatherCache(ttl, TimeUnit.SECONDS, size);
+
+        Log.log(Level.INFO, this, "Weather client initialized: {0}", cache);
+    }
+
+    /**
+     * @return the circuit breaker guarding the weather service
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @return the cache of recent observations
+     */
+    public WeatherCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Fetch the current conditions for the given zip code. Recent observations
+     * are served from the {@link WeatherCache}.
+     *
+     * @param zipCode 5 digit US zip code
+     * @return a future that completes with the observation, or exceptionally
+     *         with a {@link WeatherException} (non-200 response), a
+     *         {@link CircuitOpenException} (the service has been failing), an
+     *         {@link IOException} (network trouble), or a
+     *         {@link RejectedExecutionException} (too many lookups in flight)
+     */
+    public CompletableFuture<WeatherObservation> lookup(String zipCode) {
+        return cache.get(zipCode, this::fetchAsync);
+    }
+
+    private CompletableFuture<WeatherObservation> fetchAsync(String zipCode) {
+        CompletableFuture<WeatherObservation> result = new CompletableFuture<>();
+
+        if ( !inFlight.tryAcquire() ) {
+            result.completeExceptionally(new RejectedExecutionException("Too many weather lookups in flight"));
+            return result;
+        }
+
+        if ( !breaker.tryAcquire() ) {
+            inFlight.release();
+            result.completeExceptionally(new CircuitOpenException(breaker.getRetryAfter()));
+            return result;
+        }
+
+        try {
+            getExecutor().execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    WeatherObservation observation = fetch(zipCode);
+                    breaker.onSuccess();
+                    result.complete(observation);
+                } catch (WeatherException e) {
+                    // The service answered: only its own errors count against it
+                    if ( e.getResponseCode() >= 500 ) {
+                        breaker.onFailure();
+                        Metrics.upstreamErrors.inc(SERVICE);
+                    } else {
+                        breaker.onSuccess();
+                    }
+                    result.completeExceptionally(e);
+                } catch (Throwable t) {
+                    breaker.onFailure();
+                    Metrics.upstreamErrors.inc(SERVICE);
+                    result.completeExceptionally(t);
+                } finally {
+                    Metrics.upstreamLatency.observe(SERVICE, System.nanoTime() - start);
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            breaker.release();
+            inFlight.release();
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Blocking request to the weather service.
+     * <p>
+     * The connection is kept alive for the next request (the JVM keeps a
+     * small pool per host, see the {@code http.maxConnections} system property)
+     * unless the response couldn't be read to the end. For that to work what's
+     * left of the response body, or the error body, is drained and closed, and
+     * the connection is only disconnected when something went wrong or there
+     * was too much left over (see {@link #drain(InputStream)}).
+     * </p>
+     */
+    WeatherObservation fetch(String zipCode) throws IOException {
+        URL url = new URL(observationPrefix + zipCode + OBSERVATION_QUERY);
+        Log.log(Level.FINER, this, "Fetching weather from {0}", url);
+
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        boolean reusable = false;
+        try {
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Accept", "application/json");
+            conn.setRequestProperty("Authorization", AUTHORIZATION);
+
+            int responseCode = conn.getResponseCode();
+            if ( responseCode != 200 ) {
+                String responseMessage = conn.getResponseMessage();
+                try {
+                    reusable = drain(conn.getErrorStream());
+                } catch (IOException e) {
+                    Log.log(Level.FINEST, this, "Exception reading error response", e);
+                }
+                throw new WeatherException(responseCode, responseMessage);
+            }
+
+            // The data has 2 JsonObjects named "metadata" and "observation":
+            // only read as far as the observation fields we need
+            // (the stream is closed by drain, or by disconnecting)
+            InputStream in = conn.getInputStream();
+            JsonFieldExtractor.Fields fields = OBSERVATION_FIELDS.extract(in);
+            if ( !fields.isComplete() ) {
+                throw new IOException("Weather service response is missing " + fields.getMissing());
+            }
+            WeatherObservation observation = new WeatherObservation(fields.getString("observation.obs_name"),
+                    fields.getString("observation.wx_phrase"),
+                    fields.getInt("observation.temp", 0),
+                    fields.getString("observation.wdir_cardinal"),
+                    fields.getInt("observation.wspd", 0));
+            reusable = drain(in);
+            return observation;
+        } catch (RuntimeException e) {
+            // Malformed or unexpected data (JsonException, NumberFormatException)
+            throw new IOException("Unexpected response from the weather service: " + e, e);
+        } finally {
+            if ( !reusable ) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Read the part of a response that has already arrived, up to
+     * {@link #MAX_DRAIN} bytes, and close it so the connection can be reused.
+     * This never waits on the service: closing hands anything still in transit
+     * to the JVM's keep-alive cleaner thread, which drops the connection if
+     * it doesn't turn up in time.
+     *
+     * @return false if there was more than {@link #MAX_DRAIN} left, and the
+     *         connection should be disconnected instead
+     */
+    private static boolean drain(InputStream in) throws IOException {
+        if ( in == null ) {
+            return true;
+        }
+        byte[] buffer = new byte[512];
+        int total = 0;
+        int available;
+        while ( (available = in.available()) > 0 ) {
+            int n = in.read(buffer, 0, Math.min(available, buffer.length));
+            if ( n < 0 ) {
+                break;
+            }
+            total += n;
+            if ( total > MAX_DRAIN ) {
+                return false;
+            }
+        }
+        in.close();
+        return true;
+    }
+
+    /**
+     * Values that aren't set by the environment come through from server.xml
+     * with the variable name still in them.
+     */
+    private int parseConfig(String value, String envName, int defaultValue) {
+        if ( value == null || value.contains(envName) ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Log.log(Level.WARNING, this, "Ignoring invalid value for {0}: {1}", envName, value);
+            return defaultValue;
+        }
+    }
+
+    private Executor getExecutor() {
+        // Outside of the container (unit tests), there is no managed executor
+        return executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+}
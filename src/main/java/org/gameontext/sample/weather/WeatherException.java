@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.io.IOException;
+
+/**
+ * The weather service answered, but not with a 200.
+ */
+public class WeatherException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+    private final String responseMessage;
+
+    public WeatherException(int responseCode, String responseMessage) {
+        super(responseCode + " " + responseMessage);
+        this.responseCode = responseCode;
+        this.responseMessage = responseMessage;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    public String getResponseMessage() {
+        return responseMessage;
+    }
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+/**
+ * The handful of fields we care about from the Weather Company's
+ * "observation" object.
+ */
+public class WeatherObservation {
+
+    private final String name;
+    private final String phrase;
+    private final int temperature;
+    private final String windDirection;
+    private final int windSpeed;
+
+    public WeatherObservation(String name, String phrase, int temperature, String windDirection, int windSpeed) {
+        this.name = name;
+        this.phrase = phrase;
+        this.temperature = temperature;
+        this.windDirection = windDirection;
+        this.windSpeed = windSpeed;
+    }
+
+    /**
+     * @return Name of the observation station
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Short description of the current conditions
+     */
+    public String getPhrase() {
+        return phrase;
+    }
+
+    /**
+     * @return Temperature in degrees Fahrenheit
+     */
+    public int getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * @return Cardinal direction of the wind
+     */
+    public String getWindDirection() {
+        return windDirection;
+    }
+
+    /**
+     * @return Wind speed in Mph
+     */
+    public int getWindSpeed() {
+        return windSpeed;
+    }
+
+    /**
+     * Build the weather report phrase by combining the above values with some formatting.
+     * @return the weather report for display on the instrument panel
+     */
+    public String getReport() {
+        return "```" + name + " reports the weather is " + phrase + " and " + temperature + "°F.  Wind is "
+                + windDirection + " at " + windSpeed + " Mph.```";
+    }
+
+    @Override
+    public String toString() {
+        return getReport();
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import javax.json.JsonObject;
+import javax.ws.rs.core.Response;
+
+import org.gameontext.sample.map.client.MapClient;
+import org.gameontext.sample.weather.CircuitBreaker;
+import org.gameontext.sample.weather.WeatherClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HealthEndpointTest {
+
+    private HealthEndpoint health;
+
+    @Before
+    public void before() {
+        RoomImplementation room = new RoomImplementation();
+        room.mapClient = new MapClient();
+
+        health = new HealthEndpoint();
+        health.roomImplementation = room;
+    }
+
+    @Test
+    public void testLive() {
+        Assert.assertEquals(200, health.live().getStatus());
+
+        health.roomImplementation = null;
+        Response r = health.live();
+        Assert.assertEquals(503, r.getStatus());
+        Assert.assertEquals("{\"status\":\"DOWN\"}", r.getEntity());
+    }
+
+    @Test
+    public void testReady() {
+        JsonObject body = health.readiness();
+        Assert.assertEquals(body.toString(), "UP", body.getString("status"));
+
+        JsonObject checks = body.getJsonObject("checks");
+        Assert.assertEquals("UP", checks.getJsonObject("executor").getString("status"));
+        Assert.assertEquals("UP", checks.getJsonObject("outbound").getString("status"));
+        Assert.assertEquals("UP", checks.getJsonObject("latency").getString("status"));
+        Assert.assertFalse("map data isn't being fetched", checks.containsKey("map"));
+    }
+
+    @Test
+    public void testOpenBreakerIsNotUnready() {
+        WeatherClient weather = new WeatherClient();
+        CircuitBreaker breaker = weather.getBreaker();
+        for (int i = 0; i < 10; i++) {
+            breaker.tryAcquire();
+            breaker.onFailure();
+        }
+        Assert.assertEquals(CircuitBreaker.State.open, breaker.getState());
+        health.weatherClient = weather;
+
+        JsonObject body = health.readiness();
+        Assert.assertEquals(body.toString(), "UP", body.getString("status"));
+        JsonObject check = body.getJsonObject("checks").getJsonObject("weather");
+        Assert.assertEquals("DEGRADED", check.getString("status"));
+        Assert.assertEquals("open", check.getString("breaker"));
+        Assert.assertEquals(200, health.ready().getStatus());
+    }
+}
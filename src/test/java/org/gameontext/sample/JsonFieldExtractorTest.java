@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.gameontext.sample.JsonFieldExtractor.Fields;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class JsonFieldExtractorTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+    }
+
+    @Test
+    public void testNestedFields() {
+        JsonFieldExtractor extractor = new JsonFieldExtractor("observation.obs_name", "observation.temp", "metadata.status_code");
+        String json = "{\"metadata\":{\"status_code\":200,\"temp\":-1},"
+                + "\"temp\":-2,"
+                + "\"observation\":{\"obs_name\":\"Beverly Hills\",\"nested\":{\"temp\":-3},\"temp\":72.6}}";
+
+        Fields fields = extractor.extract(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertTrue(fields.toString(), fields.isComplete());
+        Assert.assertEquals("Beverly Hills", fields.getString("observation.obs_name"));
+        Assert.assertEquals(72, fields.getInt("observation.temp", 0));
+        Assert.assertEquals("200", fields.getString("metadata.status_code"));
+    }
+
+    @Test
+    public void testStopsOnceFound() {
+        JsonFieldExtractor extractor = new JsonFieldExtractor("a", "b.c");
+
+        // The rest of the document would not parse
+        Fields fields = extractor.extract(new StringReader("{\"a\":\"x\",\"b\":{\"c\":true}, this is not json"));
+
+        Assert.assertEquals("x", fields.getString("a"));
+        Assert.assertEquals("true", fields.getString("b.c"));
+    }
+
+    @Test
+    public void testArraysAreSkipped() {
+        JsonFieldExtractor extractor = new JsonFieldExtractor("list.a", "a");
+
+        Fields fields = extractor.extract(new StringReader("{\"list\":[{\"a\":1},{\"list\":{\"a\":2}}],\"a\":null}"));
+
+        Assert.assertFalse(fields.isComplete());
+        Assert.assertEquals("list.a", fields.getMissing());
+        Assert.assertNull("present, but null", fields.getString("a"));
+        Assert.assertEquals(-1, fields.getInt("a", -1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPath() {
+        new JsonFieldExtractor("a").extract(new StringReader("{\"a\":1}")).getString("b");
+    }
+}
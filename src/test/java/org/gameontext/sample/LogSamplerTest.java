@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogSamplerTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    @Test
+    public void testOneInN() {
+        LogSampler sampler = new LogSampler("test", 3, 0, now::get);
+
+        Assert.assertEquals(0, sampler.acquire());
+        Assert.assertEquals(-1, sampler.acquire());
+        Assert.assertEquals(-1, sampler.acquire());
+        Assert.assertEquals("two were suppressed", 2, sampler.acquire());
+        Assert.assertEquals(-1, sampler.acquire());
+    }
+
+    @Test
+    public void testRateLimit() {
+        LogSampler sampler = new LogSampler("test", 1, 10, now::get);
+
+        // A burst of up to 10
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("message " + i, 0, sampler.acquire());
+        }
+        Assert.assertEquals(-1, sampler.acquire());
+        Assert.assertEquals(-1, sampler.acquire());
+        Assert.assertEquals(2, sampler.getSuppressed());
+
+        // One more token every 100ms
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertEquals(2, sampler.acquire());
+        Assert.assertEquals(-1, sampler.acquire());
+
+        // The bucket refills, but never holds more than 10
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(sampler.acquire() >= 0);
+        }
+        Assert.assertEquals(-1, sampler.acquire());
+    }
+
+    @Test
+    public void testNoLimit() {
+        LogSampler sampler = new LogSampler("test", 1, 0, now::get);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(0, sampler.acquire());
+        }
+    }
+
+    @Test
+    public void testSummary() {
+        Assert.assertEquals("suppressed 5 test messages", new LogSampler("test", 1, 0).summary(5));
+    }
+}
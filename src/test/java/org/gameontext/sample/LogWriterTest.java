@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogWriterTest {
+
+    private final List<LogRecord> records = new ArrayList<>();
+
+    private Logger logger;
+    private Handler handler;
+
+    @Before
+    public void before() {
+        logger = Logger.getLogger("test.logwriter");
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.FINE);
+        handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void after() {
+        logger.removeHandler(handler);
+    }
+
+    @Test
+    public void testPrefixMatchesFormat() {
+        Object source = new Object();
+        String expected = String.format(": %-8x : %s", Log.getHash(source), "");
+        Assert.assertEquals(expected, LogWriter.prefix(source));
+        Assert.assertSame("prefix should be cached", LogWriter.prefix(source), LogWriter.prefix(source));
+        Assert.assertEquals(": 0        : ", LogWriter.prefix(null));
+    }
+
+    @Test
+    public void testDisabledSupplierIsNotCalled() {
+        LogWriter writer = new LogWriter("test.logwriter");
+        writer.log(Level.FINEST, this, () -> {
+            throw new AssertionError("should not be called");
+        });
+        Assert.assertTrue(records.isEmpty());
+    }
+
+    @Test
+    public void testEnabled() {
+        LogWriter writer = new LogWriter("test.logwriter");
+        writer.log(Level.FINE, this, () -> "built");
+        writer.log(Level.WARNING, this, "hello {0}", "there");
+
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals(LogWriter.prefix(this) + "built", records.get(0).getMessage());
+        Assert.assertEquals("trace is promoted", Level.INFO, records.get(0).getLevel());
+        Assert.assertEquals(getClass().getName(), records.get(0).getSourceClassName());
+
+        Assert.assertEquals(LogWriter.prefix(this) + "hello {0}", records.get(1).getMessage());
+        Assert.assertArrayEquals(new Object[] {"there"}, records.get(1).getParameters());
+        Assert.assertEquals(Level.WARNING, records.get(1).getLevel());
+    }
+
+    @Test
+    public void testSampled() {
+        LogWriter writer = new LogWriter("test.logwriter");
+        LogSampler sampler = new LogSampler("test", 2, 0);
+
+        writer.log(Level.FINE, this, sampler, () -> "one");
+        writer.log(Level.FINE, this, sampler, () -> "two");
+        writer.log(Level.FINE, this, sampler, "three {0}", 3);
+        // Disabled: not counted
+        writer.log(Level.FINEST, this, sampler, () -> "four");
+
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals(LogWriter.prefix(this) + "one", records.get(0).getMessage());
+        Assert.assertEquals(LogWriter.prefix(this) + "three {0}", records.get(1).getMessage());
+        Assert.assertEquals(LogWriter.prefix(this) + "suppressed 1 test messages", records.get(2).getMessage());
+        Assert.assertEquals(0, sampler.getSuppressed());
+    }
+
+    @Test
+    public void testAsyncWriterStops() throws Exception {
+        LogWriter.AsyncWriter writer = new LogWriter.AsyncWriter(16);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(writer.offer(logger, new LogRecord(Level.INFO, "queued " + i)));
+        }
+
+        writer.stop();
+
+        Assert.assertFalse("writer thread should have stopped", writer.thread.isAlive());
+        Assert.assertEquals("queued records should all be written", 10, records.size());
+        Assert.assertEquals("queued 9", records.get(9).getMessage());
+        Assert.assertFalse("stopped writer should not take more records",
+                writer.offer(logger, new LogRecord(Level.INFO, "late")));
+    }
+}
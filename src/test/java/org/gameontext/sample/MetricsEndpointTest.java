@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import java.io.StringWriter;
+
+import org.gameontext.sample.metrics.Metrics;
+import org.gameontext.sample.metrics.PrometheusWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsEndpointTest {
+
+    @Test
+    public void testWithoutBeans() throws Exception {
+        Metrics.framesReceived.inc("room");
+
+        StringWriter w = new StringWriter();
+        new MetricsEndpoint().writeTo(new PrometheusWriter(w));
+        String text = w.toString();
+
+        Assert.assertTrue(text, text.contains("# TYPE room_frames_received_total counter\n"));
+        Assert.assertTrue(text, text.contains("room_frames_received_total{target=\"room\"} "));
+        Assert.assertTrue(text, text.contains("# TYPE room_handle_seconds histogram\n"));
+        Assert.assertTrue(text, text.contains("room_sessions_open "));
+        Assert.assertTrue(text, text.contains("room_outbound_queued "));
+        Assert.assertFalse("no weather client: " + text, text.contains("room_upstream_breaker_state"));
+    }
+}
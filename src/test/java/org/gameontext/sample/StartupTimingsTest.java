@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample;
+
+import org.gameontext.sample.StartupTimings.Milestone;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StartupTimingsTest {
+
+    @After
+    public void after() {
+        StartupTimings.reset();
+    }
+
+    @Test
+    public void testFirstTimeOnly() throws Exception {
+        StartupTimings.reset();
+        Assert.assertEquals(-1, StartupTimings.get(Milestone.firstAck));
+        Assert.assertTrue(StartupTimings.getReport().isEmpty());
+
+        StartupTimings.reached(Milestone.firstAck);
+        long first = StartupTimings.get(Milestone.firstAck);
+        Assert.assertTrue("measured from JVM start: " + first, first > 0);
+
+        Thread.sleep(5);
+        StartupTimings.reached(Milestone.firstAck);
+        Assert.assertEquals(first, StartupTimings.get(Milestone.firstAck));
+
+        Assert.assertEquals(1, StartupTimings.getReport().size());
+        Assert.assertEquals(Long.valueOf(first), StartupTimings.getReport().get(Milestone.firstAck));
+        Assert.assertFalse(StartupTimings.getReport().containsKey(Milestone.mapData));
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.websocket.Session;
+
+import org.gameontext.sample.RoomDescription;
+import org.gameontext.sample.protocol.RoomEndpoint;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class CommandRegistryTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private RoomDescription roomDescription;
+    private CommandRegistry registry;
+
+    /** Arguments seen by {@link Recorder} commands */
+    private final List<String> calls = new ArrayList<>();
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+        roomDescription = new RoomDescription();
+        registry = new CommandRegistry(roomDescription);
+    }
+
+    @Test
+    public void testDispatchIgnoresCase() {
+        registry.register(new Recorder("/weatherLike", null));
+
+        Assert.assertTrue(registry.dispatch("id", "name", "/WEATHERlike 90210", null, null));
+        Assert.assertTrue(registry.dispatch("id", "name", "/weatherlike", null, null));
+        Assert.assertEquals("[/weatherLike:90210, /weatherLike:null]", calls.toString());
+    }
+
+    @Test
+    public void testArgumentKeepsCase() {
+        registry.register(new Recorder("/say", null));
+
+        registry.dispatch("id", "name", "/say   Hello There  ", null, null);
+        registry.dispatch("id", "name", "/say\tTabbed", null, null);
+        Assert.assertEquals("[/say:Hello There, /say:Tabbed]", calls.toString());
+    }
+
+    @Test
+    public void testPrefixIsNotACommand() {
+        registry.register(new Recorder("/go", null));
+        registry.register(new Recorder("/look", null));
+
+        Assert.assertFalse(registry.dispatch("id", "name", "/goe Stuff", null, null));
+        Assert.assertFalse(registry.dispatch("id", "name", "/g", null, null));
+        Assert.assertFalse(registry.dispatch("id", "name", "/looks", null, null));
+        Assert.assertNull(registry.find("/ping"));
+        Assert.assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void testDescriptionIsAdvertised() {
+        registry.register(new Recorder("/go", null));
+        registry.register(new Recorder("/weatherLike", "What's the weather like at <zipcode>"));
+
+        Assert.assertEquals("{\"/weatherLike\":\"What's the weather like at <zipcode>\"}",
+                roomDescription.getCommands().toString());
+
+        registry.unregister("/WeatherLike");
+        Assert.assertTrue(roomDescription.getCommands().isEmpty());
+        Assert.assertNull(registry.find("/weatherLike"));
+        Assert.assertNotNull(registry.find("/go north"));
+    }
+
+    @Test
+    public void testReplaceAndGrow() {
+        for (int i = 0; i < 100; i++) {
+            registry.register(new Recorder("/cmd" + i, null));
+        }
+        registry.register(new Recorder("/CMD7", "replaced"));
+        Assert.assertEquals(100, registry.size());
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue("/cmd" + i, registry.dispatch("id", "name", "/Cmd" + i, null, null));
+        }
+        Assert.assertEquals("/CMD7:null", calls.get(7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVerbMustBeOneWord() {
+        registry.register(new Recorder("/two words", null));
+    }
+
+    private class Recorder implements RoomCommand {
+        private final String verb;
+        private final String description;
+
+        Recorder(String verb, String description) {
+            this.verb = verb;
+            this.description = description;
+        }
+
+        @Override
+        public String getVerb() {
+            return verb;
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public void process(String userId, String username, String content, String argument,
+                RoomDescription room, RoomEndpoint endpoint, Session session) {
+            calls.add(verb + ":" + argument);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.load;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.ContainerProvider;
+import javax.websocket.DecodeException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.gameontext.sample.protocol.Message;
+
+/**
+ * Opens many sessions to a running room and measures how long the room takes
+ * to answer each player.
+ * <p>
+ * Each simulated player says hello, then sends one frame at a time, picked at
+ * random from the configured mix, and waits for the first reply meant for it
+ * (a message addressed to its userId, its own chat echoed back, or a broadcast
+ * event with a part for it) before thinking for a moment and sending the
+ * next. Round-trip times are recorded in microseconds and reported, along
+ * with throughput, when the run ends.
+ * </p>
+ * <p>
+ * Run against a local server (e.g. after {@code mvn liberty:run-server}) with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=org.gameontext.sample.load.RoomLoadGenerator
+ * -Dexec.classpathScope=test}, setting any of these system properties:
+ * </p>
+ * <ul>
+ * <li>{@code load.url}: room endpoint, default {@code ws://localhost:9080/room}</li>
+ * <li>{@code load.sessions}: number of players, default 1000</li>
+ * <li>{@code load.rampUp}: seconds over which players connect, default 10</li>
+ * <li>{@code load.warmup}: seconds after ramp-up before recording, default 10</li>
+ * <li>{@code load.duration}: seconds to record, default 60</li>
+ * <li>{@code load.think}: milliseconds between a reply and the next frame, default 500</li>
+ * <li>{@code load.timeout}: milliseconds to wait for a reply, default 5000</li>
+ * <li>{@code load.mix}: relative weights, default {@code hello:5,chat:50,look:25,go:15,weather:5}</li>
+ * <li>{@code load.hgrm}: file to write the full percentile distribution to (optional)</li>
+ * </ul>
+ * <p>
+ * {@code weather} frames call out to the weather service, so leave them out
+ * of the mix to measure the room on its own. Chat is broadcast to every
+ * session: with many players, chat-heavy mixes mostly measure fan-out.
+ * </p>
+ */
+public class RoomLoadGenerator {
+
+    /** What a simulated player can send */
+    enum Kind {
+        hello, chat, look, go, weather;
+    }
+
+    static final String ROOM_ID = "TheGeneratedIdForThisRoom";
+
+    /** Highest recordable round trip, in microseconds */
+    static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toMicros(5);
+
+    final URI uri;
+    final int sessions;
+    final long rampUp;
+    final long warmup;
+    final long duration;
+    final long think;
+    final long timeout;
+    final Kind[] mix;
+
+    final Histogram all = new ConcurrentHistogram(HIGHEST_TRACKABLE, 3);
+    final Map<Kind, Histogram> byKind = new EnumMap<>(Kind.class);
+    final Map<Kind, LongAdder> timeouts = new EnumMap<>(Kind.class);
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder closed = new LongAdder();
+
+    final ScheduledExecutorService scheduler =
+            Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+
+    volatile boolean recording = false;
+    volatile boolean running = true;
+
+    RoomLoadGenerator() {
+        uri = URI.create(System.getProperty("load.url", "ws://localhost:9080/room"));
+        sessions = Integer.getInteger("load.sessions", 1000);
+        rampUp = TimeUnit.SECONDS.toMillis(Integer.getInteger("load.rampUp", 10));
+        warmup = TimeUnit.SECONDS.toMillis(Integer.getInteger("load.warmup", 10));
+        duration = TimeUnit.SECONDS.toMillis(Integer.getInteger("load.duration", 60));
+        think = Integer.getInteger("load.think", 500);
+        timeout = Integer.getInteger("load.timeout", 5000);
+        mix = parseMix(System.getProperty("load.mix", "hello:5,chat:50,look:25,go:15,weather:5"));
+
+        for (Kind k : Kind.values()) {
+            byKind.put(k, new ConcurrentHistogram(HIGHEST_TRACKABLE, 3));
+            timeouts.put(k, new LongAdder());
+        }
+    }
+
+    /**
+     * Expand "kind:weight,..." into an array to pick from at random
+     */
+    static Kind[] parseMix(String spec) {
+        List<Kind> kinds = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] kw = part.trim().split(":");
+            Kind kind = Kind.valueOf(kw[0].trim());
+            int weight = kw.length > 1 ? Integer.parseInt(kw[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                kinds.add(kind);
+            }
+        }
+        if ( kinds.isEmpty() ) {
+            throw new IllegalArgumentException("Empty mix: " + spec);
+        }
+        return kinds.toArray(new Kind[kinds.size()]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new RoomLoadGenerator().run();
+        // The client container's threads don't stop on their own
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        System.out.printf("Connecting %d players to %s over %ds%n", sessions, uri, rampUp / 1000);
+
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        ClientEndpointConfig config = ClientEndpointConfig.Builder.create().build();
+        List<Player> players = new ArrayList<>(sessions);
+
+        long pause = sessions > 0 ? rampUp / sessions : 0;
+        for (int i = 0; i < sessions; i++) {
+            Player p = new Player(i);
+            try {
+                container.connectToServer(p, config, uri);
+                players.add(p);
+            } catch (Exception e) {
+                connectFailures.increment();
+                if ( connectFailures.sum() == 1 ) {
+                    System.out.println("Connect failed: " + e);
+                }
+            }
+            if ( pause > 0 ) {
+                Thread.sleep(pause);
+            }
+        }
+        System.out.printf("%d players connected (%d failed). Warming up for %ds%n",
+                players.size(), connectFailures.sum(), warmup / 1000);
+
+        Thread.sleep(warmup);
+        reset();
+        recording = true;
+        long start = System.nanoTime();
+        System.out.printf("Recording for %ds%n", duration / 1000);
+
+        Thread.sleep(duration);
+        recording = false;
+        long elapsed = System.nanoTime() - start;
+        running = false;
+
+        report(elapsed);
+
+        for (Player p : players) {
+            p.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    void reset() {
+        all.reset();
+        for (Kind k : Kind.values()) {
+            byKind.get(k).reset();
+            timeouts.get(k).reset();
+        }
+    }
+
+    void record(Kind kind, long nanos) {
+        if ( recording ) {
+            long micros = Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE);
+            all.recordValue(micros);
+            byKind.get(kind).recordValue(micros);
+        }
+    }
+
+    void timedOut(Kind kind) {
+        if ( recording ) {
+            timeouts.get(kind).increment();
+        }
+    }
+
+    void report(long elapsedNanos) throws IOException {
+        double seconds = elapsedNanos / 1e9;
+        PrintStream out = System.out;
+
+        out.println();
+        out.printf("%-8s %10s %10s %10s %10s %10s %10s %10s%n",
+                "", "replies", "per sec", "p50 ms", "p99 ms", "p999 ms", "max ms", "timeouts");
+        for (Kind k : Kind.values()) {
+            row(out, k.name(), byKind.get(k), timeouts.get(k).sum(), seconds);
+        }
+        long totalTimeouts = timeouts.values().stream().mapToLong(LongAdder::sum).sum();
+        row(out, "total", all, totalTimeouts, seconds);
+        out.printf("%nConnect failures: %d, sessions closed by the room: %d%n", connectFailures.sum(), closed.sum());
+
+        String hgrm = System.getProperty("load.hgrm");
+        if ( hgrm != null ) {
+            try (PrintStream file = new PrintStream(new FileOutputStream(hgrm), false, "UTF-8")) {
+                all.outputPercentileDistribution(file, 1000.0);
+            }
+            out.println("Percentile distribution (ms) written to " + hgrm);
+        }
+    }
+
+    private static void row(PrintStream out, String label, Histogram h, long timeouts, double seconds) {
+        out.printf("%-8s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %10d%n",
+                label, h.getTotalCount(), h.getTotalCount() / seconds,
+                h.getValueAtPercentile(50) / 1000.0,
+                h.getValueAtPercentile(99) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0,
+                h.getMaxValue() / 1000.0,
+                timeouts);
+    }
+
+    /**
+     * One simulated player: one session, one frame in flight at a time.
+     */
+    class Player extends Endpoint implements MessageHandler.Whole<String> {
+        final String userId;
+        final String username;
+
+        Session session;
+        final AtomicBoolean waiting = new AtomicBoolean(false);
+        volatile Kind kind;
+        volatile String chat;
+        volatile long sentAt;
+        volatile ScheduledFuture<?> timer;
+        long sequence = 0;
+
+        Player(int i) {
+            this.userId = "load." + i;
+            this.username = "Load" + i;
+        }
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            this.session = session;
+            session.addMessageHandler(this);
+            send(Kind.hello);
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            if ( running ) {
+                closed.increment();
+            }
+            ScheduledFuture<?> t = timer;
+            if ( t != null ) {
+                t.cancel(false);
+            }
+        }
+
+        @Override
+        public void onMessage(String frame) {
+            if ( waiting.get() && isReplyToMe(frame) && waiting.compareAndSet(true, false) ) {
+                record(kind, System.nanoTime() - sentAt);
+                timer.cancel(false);
+                next();
+            }
+        }
+
+        /**
+         * @return true if this is the first reply the room sends this player
+         *      for the kind of frame last sent
+         */
+        boolean isReplyToMe(String frame) {
+            Message m;
+            try {
+                m = new Message(frame);
+            } catch (DecodeException e) {
+                return false;
+            }
+
+            switch (m.getTarget()) {
+                case player:
+                case playerLocation:
+                    if ( userId.equals(m.getTargetId()) ) {
+                        return true;
+                    }
+                    if ( !m.isBroadcast() ) {
+                        return false;
+                    }
+                    JsonObject body = m.getParsedBody();
+                    if ( "chat".equals(body.getString("type", null)) ) {
+                        return kind == Kind.chat && chat.equals(body.getString(Message.CONTENT, null));
+                    }
+                    JsonValue content = body.get(Message.CONTENT);
+                    return content instanceof JsonObject && ((JsonObject) content).containsKey(userId);
+                default:
+                    return false;
+            }
+        }
+
+        void next() {
+            if ( running ) {
+                long delay = think > 0 ? ThreadLocalRandom.current().nextLong(think / 2, think + think / 2 + 1) : 0;
+                scheduler.schedule(() -> send(mix[ThreadLocalRandom.current().nextInt(mix.length)]),
+                        delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void send(Kind next) {
+            if ( !running || !session.isOpen() ) {
+                return;
+            }
+
+            Message m;
+            switch (next) {
+                case hello:
+                    m = Message.createRoomHello(ROOM_ID, userId, username, 2);
+                    break;
+                case chat:
+                    chat = username + " says " + (++sequence);
+                    m = Message.createRoomMessage(ROOM_ID, userId, username, chat);
+                    break;
+                case look:
+                    m = Message.createRoomMessage(ROOM_ID, userId, username, "/look");
+                    break;
+                case go:
+                    m = Message.createRoomMessage(ROOM_ID, userId, username, "/go N");
+                    break;
+                case weather:
+                default:
+                    m = Message.createRoomMessage(ROOM_ID, userId, username,
+                            "/weatherLike " + (10000 + ThreadLocalRandom.current().nextInt(90000)));
+                    break;
+            }
+
+            kind = next;
+            waiting.set(true);
+            timer = scheduler.schedule(() -> {
+                if ( waiting.compareAndSet(true, false) ) {
+                    timedOut(next);
+                    next();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            sentAt = System.nanoTime();
+            session.getAsyncRemote().sendText(m.encode());
+        }
+
+        void close() {
+            try {
+                if ( session != null && session.isOpen() ) {
+                    session.close();
+                }
+            } catch (IOException e) {
+                // going away anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.map.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cxf.transport.http.CXFAuthenticator;
+import org.gameontext.sample.RoomDescription;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class MapClientTest {
+
+    static final String SITE = "{\"_id\":\"roomId\",\"info\":{\"name\":\"mapRoom\","
+            + "\"fullName\":\"A Room from the Map\",\"description\":\"As registered.\"}}";
+
+    static {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger(0);
+    private volatile String etag = "\"v1\"";
+    private volatile int status = 200;
+    private volatile String lastIfNoneMatch;
+
+    /** Requests to answer with 503 before answering normally */
+    private final AtomicInteger failures = new AtomicInteger(0);
+
+    private MapClient client;
+
+    @BeforeClass
+    public static void beforeClass() {
+        // The CXF client (standing in for Liberty's) installs its authenticator
+        // using reflection, which newer JVMs refuse. It only tries once.
+        try {
+            CXFAuthenticator.addAuthenticator();
+        } catch (RuntimeException e) {
+            System.out.println("CXF authenticator not installed: " + e);
+        }
+    }
+
+    @Before
+    public void before() throws IOException {
+        System.out.println(" ===== " + testName.getMethodName());
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        client = new MapClient();
+        client.mapLocation = "http://localhost:" + server.getAddress().getPort() + "/map/v1/sites";
+        client.initClient();
+    }
+
+    @After
+    public void after() {
+        client.destroyClient();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConditionalRequest() {
+        MapData first = client.getMapData("roomId");
+        Assert.assertNotNull(first);
+        Assert.assertEquals("mapRoom", first.getName());
+        Assert.assertNull("first request should not be conditional", lastIfNoneMatch);
+
+        MapData second = client.getMapData("roomId");
+        Assert.assertEquals("\"v1\"", lastIfNoneMatch);
+        Assert.assertSame("304 should return the cached response", first, second);
+        Assert.assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testLastGoodResponse() {
+        MapData first = client.getMapData("roomId");
+        status = 503;
+        Assert.assertSame("failed refresh should return the last good response", first, client.getMapData("roomId"));
+        Assert.assertNull("another site should not get the cached response", client.getMapData("otherId"));
+    }
+
+    @Test
+    public void testRefreshOnlyAppliesChanges() {
+        RoomDescription description = new RoomDescription();
+        long version = description.getVersion();
+
+        client.refresh("roomId", description);
+        Assert.assertEquals("mapRoom", description.getName());
+        Assert.assertEquals(version + 1, description.getVersion());
+
+        // Not modified
+        client.refresh("roomId", description);
+        // Modified, but the same
+        etag = "\"v2\"";
+        client.refresh("roomId", description);
+        Assert.assertEquals(version + 1, description.getVersion());
+        Assert.assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testUpdateRoomDoesNotBlock() throws Exception {
+        RoomDescription description = new RoomDescription();
+        String name = description.getName();
+
+        server.stop(0);
+        long start = System.nanoTime();
+        client.updateRoom("roomId", description);
+        Assert.assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        Assert.assertEquals("defaults should be served until the map answers", name, description.getName());
+    }
+
+    @Test
+    public void testRetryUntilSuccess() throws Exception {
+        client.retryPolicy = new RetryPolicy(10, 20, 5000, TimeUnit.MILLISECONDS);
+        failures.set(2);
+
+        RoomDescription description = new RoomDescription();
+        client.refresh("roomId", description);
+        Assert.assertEquals("retries should not run on the caller's thread", 1, requests.get());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( !"mapRoom".equals(description.getName()) && System.currentTimeMillis() < deadline ) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("mapRoom", description.getName());
+        Assert.assertEquals(3, client.getAttempts());
+        Assert.assertEquals(1, client.getSuccesses());
+        Assert.assertEquals(0, client.getGiveUps());
+    }
+
+    @Test
+    public void testGiveUp() throws Exception {
+        client.retryPolicy = new RetryPolicy(10, 20, 200, TimeUnit.MILLISECONDS);
+        status = 500;
+
+        RoomDescription description = new RoomDescription();
+        String name = description.getName();
+        client.refresh("roomId", description);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( client.getGiveUps() == 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, client.getGiveUps());
+        Assert.assertTrue("should have retried: " + client.getAttempts(), client.getAttempts() > 1);
+        Assert.assertEquals(0, client.getSuccesses());
+        Assert.assertEquals(name, description.getName());
+
+        // The next refresh starts over (once the one that gave up is done)
+        status = 200;
+        while ( !"mapRoom".equals(description.getName()) && System.currentTimeMillis() < deadline ) {
+            client.refresh("roomId", description);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("mapRoom", description.getName());
+    }
+
+    @Test
+    public void testNoRetryForUnknownSite() {
+        client.retryPolicy = new RetryPolicy(10, 20, 5000, TimeUnit.MILLISECONDS);
+        status = 404;
+
+        client.refresh("roomId", new RoomDescription());
+        Assert.assertEquals(1, client.getAttempts());
+        Assert.assertEquals(0, client.getGiveUps());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        try {
+            if ( failures.getAndDecrement() > 0 ) {
+                exchange.sendResponseHeaders(503, -1);
+            } else if ( status != 200 ) {
+                exchange.sendResponseHeaders(status, -1);
+            } else if ( etag.equals(lastIfNoneMatch) ) {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = SITE.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.map.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testBackoffDoublesUpToMax() {
+        // Always pick the longest delay
+        RetryPolicy policy = new RetryPolicy(100, 1000, 60000, TimeUnit.MILLISECONDS, bound -> bound - 1);
+
+        Assert.assertEquals(100 * MS, policy.nextDelay(1, 0));
+        Assert.assertEquals(200 * MS, policy.nextDelay(2, 0));
+        Assert.assertEquals(400 * MS, policy.nextDelay(3, 0));
+        Assert.assertEquals(800 * MS, policy.nextDelay(4, 0));
+        Assert.assertEquals(1000 * MS, policy.nextDelay(5, 0));
+        Assert.assertEquals(1000 * MS, policy.nextDelay(100, 0));
+    }
+
+    @Test
+    public void testJitter() {
+        // Always pick the shortest delay
+        RetryPolicy policy = new RetryPolicy(100, 1000, 60000, TimeUnit.MILLISECONDS, bound -> 0);
+        Assert.assertEquals(50 * MS, policy.nextDelay(1, 0));
+        Assert.assertEquals(500 * MS, policy.nextDelay(10, 0));
+
+        RetryPolicy random = new RetryPolicy(100, 1000, 60000, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 1000; i++) {
+            long delay = random.nextDelay(3, 0);
+            Assert.assertTrue("delay " + delay, delay >= 200 * MS && delay <= 400 * MS);
+        }
+    }
+
+    @Test
+    public void testDeadline() {
+        RetryPolicy policy = new RetryPolicy(100, 1000, 5000, TimeUnit.MILLISECONDS, bound -> bound - 1);
+
+        Assert.assertEquals(1000 * MS, policy.nextDelay(10, 3000 * MS));
+        Assert.assertEquals("next attempt would start after the deadline", -1, policy.nextDelay(10, 4500 * MS));
+        Assert.assertEquals(-1, policy.nextDelay(1, 5000 * MS));
+    }
+}
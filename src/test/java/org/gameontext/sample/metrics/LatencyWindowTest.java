@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyWindowTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    private LatencyWindow window() {
+        return new LatencyWindow(60, 6, TimeUnit.SECONDS, now::get);
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertEquals(-1, window().getPercentile(99));
+        Assert.assertEquals(0, window().getCount());
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyWindow w = window();
+        for (int i = 0; i < 990; i++) {
+            w.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        for (int i = 0; i < 10; i++) {
+            w.record(TimeUnit.MILLISECONDS.toNanos(500));
+        }
+        Assert.assertEquals(1000, w.getCount());
+
+        long p99 = w.getPercentile(99);
+        Assert.assertTrue("p99 " + p99, p99 > TimeUnit.MILLISECONDS.toNanos(1) && p99 <= TimeUnit.MICROSECONDS.toNanos(1250));
+
+        long max = w.getPercentile(100);
+        Assert.assertTrue("max " + max, max > TimeUnit.MILLISECONDS.toNanos(500) && max <= TimeUnit.MILLISECONDS.toNanos(625));
+    }
+
+    @Test
+    public void testOldSlotsDropOff() {
+        LatencyWindow w = window();
+        w.record(TimeUnit.SECONDS.toNanos(5));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        w.record(TimeUnit.MILLISECONDS.toNanos(2));
+        Assert.assertEquals(2, w.getCount());
+
+        // The first sample is now more than a minute old
+        now.addAndGet(TimeUnit.SECONDS.toNanos(35));
+        Assert.assertEquals(1, w.getCount());
+        Assert.assertTrue(w.getPercentile(99) < TimeUnit.MILLISECONDS.toNanos(3));
+
+        // Its slot is reused (and cleared) for new samples
+        w.record(TimeUnit.MILLISECONDS.toNanos(2));
+        Assert.assertEquals(2, w.getCount());
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long nanos = 1000; nanos < TimeUnit.SECONDS.toNanos(100); nanos = nanos * 3 / 2) {
+            int b = LatencyWindow.bucket(nanos);
+            long upper = LatencyWindow.upperBound(b);
+            Assert.assertTrue(nanos + " should be below " + upper, nanos < upper);
+            Assert.assertTrue(nanos + " bucket is too wide: " + upper, upper <= nanos * 5 / 4 + 1);
+        }
+    }
+}
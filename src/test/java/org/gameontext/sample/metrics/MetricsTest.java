@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    private String write(Metric m) throws IOException {
+        StringWriter w = new StringWriter();
+        m.writeTo(new PrometheusWriter(w));
+        return w.toString();
+    }
+
+    @Test
+    public void testCounter() throws IOException {
+        Counter c = new Counter("test_total", "Things", "kind");
+        c.inc("a");
+        c.inc("a");
+        c.inc("b\"c");
+
+        Assert.assertEquals(2, c.get("a"));
+        Assert.assertEquals(0, c.get("missing"));
+
+        String text = write(c);
+        Assert.assertTrue(text, text.startsWith("# HELP test_total Things\n# TYPE test_total counter\n"));
+        Assert.assertTrue(text, text.contains("test_total{kind=\"a\"} 2\n"));
+        Assert.assertTrue("label values should be escaped: " + text, text.contains("test_total{kind=\"b\\\"c\"} 1\n"));
+    }
+
+    @Test
+    public void testUnlabeledCounter() throws IOException {
+        Counter c = new Counter("test_total", "Things", null);
+        c.inc();
+        Assert.assertEquals("# HELP test_total Things\n# TYPE test_total counter\ntest_total 1\n", write(c));
+    }
+
+    @Test
+    public void testHistogram() throws IOException {
+        Histogram h = new Histogram("test_seconds", "Latency", null);
+        h.observe(TimeUnit.MICROSECONDS.toNanos(100));
+        h.observe(TimeUnit.MILLISECONDS.toNanos(3));
+        h.observe(TimeUnit.MILLISECONDS.toNanos(5));
+        h.observe(TimeUnit.SECONDS.toNanos(20));
+        Assert.assertEquals(4, h.getCount());
+
+        String text = write(h);
+        Assert.assertTrue(text, text.contains("# TYPE test_seconds histogram\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{le=\"0.0005\"} 1\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{le=\"0.0025\"} 1\n"));
+        Assert.assertTrue("bounds are inclusive: " + text, text.contains("test_seconds_bucket{le=\"0.005\"} 3\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{le=\"10\"} 3\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{le=\"+Inf\"} 4\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_sum 20.0081\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_count 4\n"));
+    }
+
+    @Test
+    public void testLabeledHistogram() throws IOException {
+        Histogram h = new Histogram("test_seconds", "Latency", "service");
+        h.observe("weather", TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertEquals(1, h.getCount("weather"));
+        Assert.assertEquals(0, h.getCount("map"));
+
+        String text = write(h);
+        Assert.assertTrue(text, text.contains("test_seconds_bucket{service=\"weather\",le=\"0.001\"} 1\n"));
+        Assert.assertTrue(text, text.contains("test_seconds_count{service=\"weather\"} 1\n"));
+    }
+
+    @Test
+    public void testGauge() throws IOException {
+        Gauge g = new Gauge("test_open", "Open things");
+        g.inc();
+        g.inc();
+        g.dec();
+        Assert.assertEquals("# HELP test_open Open things\n# TYPE test_open gauge\ntest_open 1\n", write(g));
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.json.JsonObject;
+import javax.websocket.DecodeException;
+
+import org.gameontext.sample.RoomDescription;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * What goes in as binary, must come out as the same message.
+ */
+public class BinaryFrameTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+    }
+
+    private Message roundTrip(Message m1) throws Exception {
+        byte[] bytes = m1.encodeBinary();
+        String text = m1.encode();
+        System.out.println(text.getBytes(StandardCharsets.UTF_8).length + " -> " + bytes.length + " bytes: " + text);
+
+        Message m2 = new MessageBinaryDecoder().decode(ByteBuffer.wrap(bytes));
+        Assert.assertEquals(m1.getTarget(), m2.getTarget());
+        Assert.assertEquals(m1.getTargetId(), m2.getTargetId());
+        Assert.assertEquals(m1.getParsedBody(), m2.getParsedBody());
+        Assert.assertEquals(m1.getUserId(), m2.getUserId());
+        Assert.assertEquals(m1.getUsername(), m2.getUsername());
+        Assert.assertEquals(m1.getContent(), m2.getContent());
+        return m2;
+    }
+
+    @Test
+    public void testRoomMessage() throws Exception {
+        Message m2 = roundTrip(Message.createRoomMessage("roomId", "user1", "username1", "/look é☺"));
+        Assert.assertEquals("user1", m2.getUserId());
+        Assert.assertEquals("/look é☺", m2.getContent());
+
+        // Decoding produces the same payload text the room would have seen
+        Assert.assertEquals(Message.createRoomMessage("roomId", "user1", "username1", "/look é☺"), m2);
+    }
+
+    @Test
+    public void testRoomHello() throws Exception {
+        Message m2 = roundTrip(Message.createRoomHello("roomId", "user1", "username1", 3));
+        Assert.assertEquals(3, m2.getParsedBody().getInt("version"));
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        roundTrip(Message.createSpecificEvent("user1", "Message for user1"));
+        roundTrip(Message.createBroadcastEvent("EVERYTHING", "user1", "Message for user1"));
+        roundTrip(Message.createExitMessage("user1", "N", null));
+    }
+
+    @Test
+    public void testChatIsSmaller() throws Exception {
+        Message m1 = Message.createChatMessage("username1", "Hello");
+        Assert.assertTrue(m1.encodeBinary().length < m1.encode().length() / 2);
+
+        // Bookmarks are sent as a number, and come back the same
+        Message m2 = roundTrip(m1);
+        Assert.assertEquals(m1.getParsedBody().getString("bookmark"), m2.getParsedBody().getString("bookmark"));
+    }
+
+    @Test
+    public void testLocation() throws Exception {
+        RoomDescription roomDescription = new RoomDescription();
+        roomDescription.addCommand("/ping", "Does this work?");
+        roomDescription.addItem("barometer");
+        roomDescription.addItem("weather vane");
+
+        Message m1 = Message.createLocationMessage("user1", roomDescription);
+        Assert.assertTrue(m1.encodeBinary().length < m1.encode().length());
+        roundTrip(m1);
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        Message m1 = new Message(Message.Target.room, "roomId",
+                "{\"a\":[1,-1,0,9223372036854775807,-9223372036854775808,1.5,1e400,12345678901234567890],"
+                + "\"b\":{\"\":null,\"t\":true,\"f\":false,\"n\":[[],{}]},"
+                + "\"c\":[\"room-\",\"room-01\",\"room-42\",\"N\",\"*\"]}");
+        JsonObject body = roundTrip(m1).getParsedBody();
+        Assert.assertEquals("[\"room-\",\"room-01\",\"room-42\",\"N\",\"*\"]", body.get("c").toString());
+        Assert.assertEquals(Long.MIN_VALUE, body.getJsonArray("a").getJsonNumber(4).longValue());
+    }
+
+    @Test
+    public void testEncodeOnce() throws Exception {
+        Message m1 = Message.createChatMessage("username1", "Hello");
+        Assert.assertSame(m1.encodeBinary(), m1.encodeBinary());
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeWrongVersion() throws Exception {
+        byte[] bytes = Message.createRoomMessage("roomId", "user1", "username1", "hi").encodeBinary().clone();
+        bytes[0] = 2;
+        new MessageBinaryDecoder().decode(ByteBuffer.wrap(bytes));
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeUnknownTarget() throws Exception {
+        byte[] bytes = Message.createRoomMessage("roomId", "user1", "username1", "hi").encodeBinary().clone();
+        bytes[1] = 100;
+        new MessageBinaryDecoder().decode(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void testDecodeTruncated() throws Exception {
+        byte[] bytes = Message.createChatMessage("username1", "Hello").encodeBinary();
+        for (int i = 0; i < bytes.length; i++) {
+            try {
+                new MessageBinaryDecoder().decode(ByteBuffer.wrap(Arrays.copyOf(bytes, i)));
+                Assert.fail("Decoded " + i + " bytes of " + bytes.length);
+            } catch (DecodeException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeTrailingBytes() throws Exception {
+        byte[] bytes = Message.createChatMessage("username1", "Hello").encodeBinary();
+        new MessageBinaryDecoder().decode(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length + 1)));
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.util.HashMap;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.Session;
+
+import org.gameontext.sample.metrics.Metrics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.junit.runner.RunWith;
+
+import mockit.Expectations;
+import mockit.Injectable;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class BroadcastTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+    }
+
+    private void expectSession(Session session, Async remote) {
+        new Expectations() {{
+            session.getUserProperties(); result = new HashMap<String, Object>();
+            session.getAsyncRemote(); result = remote;
+        }};
+    }
+
+    @Test
+    public void testEncodeFailureOnlyAffectsThatFormat(@Injectable Session textSession, @Injectable Async textRemote,
+            @Injectable Session binarySession, @Injectable Async binaryRemote) throws Exception {
+        expectSession(textSession, textRemote);
+        expectSession(binarySession, binaryRemote);
+        new Expectations() {{
+            textSession.isOpen(); result = true;
+            binarySession.getId(); result = "binary";
+        }};
+        SessionSender.get(binarySession).negotiate(true);
+
+        // Fine as text, but the binary format needs a JSON object
+        Message message = new Message(Message.Target.player, "*", "[1]");
+        long errors = Metrics.codecErrors.get("encode");
+
+        Broadcast broadcast = new Broadcast(new RoomEndpoint(), message, 2);
+        broadcast.sendTo(binarySession);
+        broadcast.sendTo(textSession);
+
+        Assert.assertEquals("binary encode failure should be counted", errors + 1, Metrics.codecErrors.get("encode"));
+
+        new Verifications() {{
+            textRemote.sendText("player,*,[1]", (SendHandler) any); times = 1;
+            binaryRemote.sendBinary(withAny(null), (SendHandler) any); times = 0;
+            binarySession.close((CloseReason) any); times = 0;
+        }};
+    }
+}
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.gameontext.sample.protocol;
 
+import javax.websocket.DecodeException;
+
 import org.gameontext.sample.RoomDescription;
 import org.gameontext.sample.map.client.MapData;
 import org.junit.Assert;
@@ -262,4 +264,125 @@ public class MessageTest {
         Message m2 = new Message(s);
         Assert.assertEquals(m1, m2);
     }
+
+    @Test
+    public void testParsedBodyIsCached() throws Exception {
+        Message m1 = new Message("room,roomId,{\"userId\":\"user1\",\"username\":\"name1\",\"content\":\"hello\"}");
+
+        Assert.assertSame(m1.getParsedBody(), m1.getParsedBody());
+        Assert.assertEquals("hello", m1.getParsedBody().getString(Message.CONTENT));
+    }
+
+    @Test
+    public void testSenderFields() throws Exception {
+        Message m1 = new Message("room,roomId,{\"nested\":{\"userId\":\"nope\"},\"userId\":\"user1\",\"username\":\"name1\",\"content\":\"hello\"}");
+
+        Assert.assertEquals("user1", m1.getUserId());
+        Assert.assertEquals("name1", m1.getUsername());
+        Assert.assertEquals("hello", m1.getContent());
+
+        // Same answers when the body has already been parsed
+        Message m2 = new Message(m1.encode());
+        m2.getParsedBody();
+        Assert.assertEquals("user1", m2.getUserId());
+        Assert.assertEquals("name1", m2.getUsername());
+        Assert.assertEquals("hello", m2.getContent());
+    }
+
+    @Test
+    public void testSenderFieldsMissing() throws Exception {
+        Message m1 = Message.createSpecificEvent("user1", "Message for user1");
+
+        // content is an object for events, rather than a string
+        Assert.assertNull(m1.getContent());
+        Assert.assertNull(m1.getUserId());
+        Assert.assertNull(m1.getUsername());
+    }
+
+    @Test
+    public void testDecodeWhitespace() throws Exception {
+        Message m1 = new MessageDecoder().decode(" room , roomId ,  {\"userId\":\"user1\",\"username\":\"name1\",\"content\":\"hello, there\"}  ");
+
+        Assert.assertEquals(Message.Target.room, m1.getTarget());
+        Assert.assertEquals("roomId", m1.getTargetId());
+        Assert.assertEquals("user1", m1.getUserId());
+        Assert.assertEquals("name1", m1.getUsername());
+        Assert.assertEquals("hello, there", m1.getContent());
+        Assert.assertEquals(Message.createRoomMessage("roomId", "user1", "name1", "hello, there"), m1);
+    }
+
+    @Test
+    public void testDecodeNoTargetId() throws Exception {
+        Message m1 = new MessageDecoder().decode(Message.ACK_MSG.encode());
+
+        Assert.assertEquals(Message.Target.ack, m1.getTarget());
+        Assert.assertEquals("", m1.getTargetId());
+        Assert.assertEquals(Message.ACK_MSG, m1);
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeNoHeader() throws Exception {
+        new MessageDecoder().decode("{\"userId\":\"user1\"}");
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeNoPayload() throws Exception {
+        new MessageDecoder().decode("room,roomId,");
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeUnknownTarget() throws Exception {
+        new MessageDecoder().decode("bogus,roomId,{\"userId\":\"user1\"}");
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeJunkBeforePayload() throws Exception {
+        new MessageDecoder().decode("room,roomId,junk{\"userId\":\"user1\"}");
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeTruncatedPayload() throws Exception {
+        new MessageDecoder().decode("room,roomId,{\"userId\":\"user1\",\"content\":{\"a\":\"b\"}");
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testDecodeJunkAfterPayload() throws Exception {
+        new MessageDecoder().decode("room,roomId,{\"userId\":\"user1\"} trailing");
+    }
+
+    @Test
+    public void testLocationPayloadIsCached() throws Exception {
+        RoomDescription roomDescription = new RoomDescription();
+
+        Message m1 = Message.createLocationMessage("user1", roomDescription);
+        Message m2 = Message.createLocationMessage("user2", roomDescription);
+        Assert.assertSame(roomDescription.getLocationPayload(), roomDescription.getLocationPayload());
+        Assert.assertTrue(m2.encode(), m2.encode().startsWith("player,user2,{\"type\":\"location\""));
+
+        long version = roomDescription.getVersion();
+        roomDescription.addCommand("/command", "description");
+        Assert.assertNotEquals(version, roomDescription.getVersion());
+
+        String s = Message.createLocationMessage("user1", roomDescription).encode();
+        Assert.assertTrue(s, s.contains("\"commands\":{\"/command\":\"description\"}"));
+
+        roomDescription.addItem("Squashy Chair");
+        s = Message.createLocationMessage("user1", roomDescription).encode();
+        Assert.assertTrue(s, s.contains("\"roomInventory\":[\"Squashy Chair\"]"));
+
+        roomDescription.setDescription("A different room");
+        s = Message.createLocationMessage("user1", roomDescription).encode();
+        Assert.assertTrue(s, s.contains("\"description\":\"A different room\""));
+    }
+
+    @Test
+    public void testEncodeOnce() throws Exception {
+        Message m1 = Message.createChatMessage("userName", "Message from userName");
+
+        String s = m1.encode();
+        Assert.assertSame(s, m1.encode());
+        Assert.assertTrue(s, s.startsWith("player,*,{"));
+
+        Assert.assertEquals("ack,{\"version\":[1,2,3]}", Message.ACK_MSG.encode());
+    }
 }
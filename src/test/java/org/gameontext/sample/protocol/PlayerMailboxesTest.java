@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gameontext.sample.metrics.Metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class PlayerMailboxesTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private ExecutorService pool;
+    private PlayerMailboxes mailboxes;
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+        pool = Executors.newFixedThreadPool(4);
+        mailboxes = new PlayerMailboxes(pool);
+    }
+
+    @After
+    public void after() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testOrderedPerPlayer() throws Exception {
+        List<Integer> a = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> b = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2000);
+
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            mailboxes.submit("a", () -> { a.add(n); done.countDown(); });
+            mailboxes.submit("b", () -> { b.add(n); done.countDown(); });
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i, a.get(i).intValue());
+            Assert.assertEquals(i, b.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testSlowPlayerDoesNotBlockOthers() throws Exception {
+        CountDownLatch slow = new CountDownLatch(1);
+        CountDownLatch fast = new CountDownLatch(1);
+
+        mailboxes.submit("slow", () -> {
+            try {
+                slow.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        mailboxes.submit("slow", () -> {});
+        mailboxes.submit("fast", fast::countDown);
+
+        Assert.assertTrue("fast player should not wait for the slow one", fast.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, mailboxes.getDepth("slow"));
+        slow.countDown();
+    }
+
+    @Test
+    public void testStatsAndRelease() throws Exception {
+        CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            mailboxes.submit("a", done::countDown);
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // Work can still be running its last bookkeeping: wait for it
+        PlayerMailboxes.Stats stats = null;
+        for (int i = 0; i < 100 && (stats == null || stats.getProcessed() < 3); i++) {
+            Thread.sleep(10);
+            stats = mailboxes.getStats().get(0);
+        }
+        Assert.assertEquals("a", stats.getUserId());
+        Assert.assertEquals(3, stats.getProcessed());
+        Assert.assertEquals(0, stats.getDepth());
+
+        mailboxes.release("a");
+        for (int i = 0; i < 100 && !mailboxes.getStats().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue("released empty mailbox should be gone: " + mailboxes.getStats(), mailboxes.getStats().isEmpty());
+
+        // The player comes back
+        CountDownLatch again = new CountDownLatch(1);
+        mailboxes.submit("a", again::countDown);
+        Assert.assertTrue(again.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFullMailboxShedsSheddableWork() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        mailboxes.submit("a", () -> {
+            running.countDown();
+            try {
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < PlayerMailboxes.LIMIT; i++) {
+            Assert.assertTrue("below the limit", mailboxes.submit("a", () -> {}, true));
+        }
+
+        long shed = Metrics.inboundShed.get();
+        Assert.assertFalse("mailbox is full", mailboxes.submit("a", () -> {}, true));
+        Assert.assertEquals(shed + 1, Metrics.inboundShed.get());
+
+        // Arriving and leaving is never turned away, nor is anyone else
+        Assert.assertTrue(mailboxes.submit("a", () -> {}, false));
+        Assert.assertTrue(mailboxes.submit("b", () -> {}, true));
+        Assert.assertEquals(PlayerMailboxes.LIMIT + 1, mailboxes.getDepth("a"));
+        blocked.countDown();
+    }
+
+    @Test
+    public void testConfiguredLimit() throws Exception {
+        mailboxes.inboundQueueLimit = "2";
+        mailboxes.postConstruct();
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        mailboxes.submit("a", () -> {
+            running.countDown();
+            try {
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(mailboxes.submit("a", () -> {}, true));
+        Assert.assertTrue(mailboxes.submit("a", () -> {}, true));
+        Assert.assertFalse("mailbox is full", mailboxes.submit("a", () -> {}, true));
+        blocked.countDown();
+    }
+
+    @Test
+    public void testRejectedMailboxIsNotRunInline() throws Exception {
+        AtomicBoolean reject = new AtomicBoolean(true);
+        PlayerMailboxes rejecting = new PlayerMailboxes(work -> {
+            if ( reject.get() ) {
+                throw new RejectedExecutionException("full");
+            }
+            pool.execute(work);
+        });
+
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2);
+        rejecting.submit("a", () -> { threads.add(Thread.currentThread()); done.countDown(); });
+        Assert.assertTrue("rejected work should wait, not run on the caller", threads.isEmpty());
+        Assert.assertEquals(1, rejecting.getDepth("a"));
+
+        // The next submit finds room in the pool, and takes the stalled mailbox along
+        reject.set(false);
+        rejecting.submit("b", () -> { threads.add(Thread.currentThread()); done.countDown(); });
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testBusyMailboxKeepsItsThreadWhenPoolIsFull() throws Exception {
+        AtomicInteger executions = new AtomicInteger(0);
+        PlayerMailboxes onePool = new PlayerMailboxes(work -> {
+            if ( executions.incrementAndGet() > 1 ) {
+                throw new RejectedExecutionException("full");
+            }
+            pool.execute(work);
+        });
+
+        int items = PlayerMailboxes.BATCH * 4;
+        List<Integer> depths = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(items);
+        onePool.submit("a", () -> {
+            try {
+                start.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < items; i++) {
+            onePool.submit("a", () -> { depths.add(new Throwable().getStackTrace().length); done.countDown(); });
+        }
+        start.countDown();
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        int min = depths.stream().mapToInt(Integer::intValue).min().getAsInt();
+        int max = depths.stream().mapToInt(Integer::intValue).max().getAsInt();
+        Assert.assertEquals("stack should not grow between batches", min, max);
+    }
+
+    @Test
+    public void testStalledMailboxesRunOnceThePoolFrees() throws Exception {
+        // One thread, no queue: busy with something else, it turns mailboxes away
+        ThreadPoolExecutor full = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+        try {
+            CountDownLatch lookup = new CountDownLatch(1);
+            full.execute(() -> {
+                try {
+                    lookup.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            PlayerMailboxes stalling = new PlayerMailboxes(full);
+            CountDownLatch done = new CountDownLatch(3);
+            stalling.submit("a", done::countDown);
+            stalling.submit("b", done::countDown);
+            stalling.submit("c", done::countDown);
+            Assert.assertEquals(1, stalling.getDepth("a"));
+            Assert.assertEquals(1, stalling.getDepth("c"));
+
+            // Nothing else is submitted: the stalled mailboxes are retried anyway
+            lookup.countDown();
+            Assert.assertTrue("stalled work should run once the pool has room", done.await(5, TimeUnit.SECONDS));
+            stalling.preDestroy();
+        } finally {
+            full.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDeepest() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        Runnable block = () -> {
+            try {
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        mailboxes.submit("a", block);
+        mailboxes.submit("b", block);
+        mailboxes.submit("c", block);
+        for (int i = 0; i < 3; i++) {
+            mailboxes.submit("b", () -> {});
+        }
+        mailboxes.submit("c", () -> {});
+        for (int i = 0; i < 100 && (mailboxes.getDepth("b") != 3 || mailboxes.getDepth("c") != 1); i++) {
+            Thread.sleep(10);
+        }
+
+        List<PlayerMailboxes.Stats> deepest = mailboxes.getDeepest(5);
+        Assert.assertEquals("only mailboxes with work waiting: " + deepest, 2, deepest.size());
+        Assert.assertEquals("b", deepest.get(0).getUserId());
+        Assert.assertEquals(3, deepest.get(0).getDepth());
+        Assert.assertEquals("c", deepest.get(1).getUserId());
+
+        Assert.assertEquals(1, mailboxes.getDeepest(1).size());
+        blocked.countDown();
+    }
+}
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.sample.RoomImplementation;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.junit.runner.RunWith;
+
+import mockit.Expectations;
+import mockit.Injectable;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class RoomEndpointTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private final RoomEndpoint endpoint = new RoomEndpoint();
+
+    /** Open sessions, for broadcasts */
+    private final Set<Session> open = new HashSet<>();
+
+    /** Frames written to each stub session */
+    private final Map<Session, List<String>> written = new HashMap<>();
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+
+        endpoint.sessionRegistry = new SessionRegistry();
+        // Handle messages straight away, on the calling thread
+        endpoint.mailboxes = new PlayerMailboxes(Runnable::run);
+        endpoint.roomImplementation = new RoomImplementation() {
+            @Override
+            public void handleMessage(Session session, Message message, RoomEndpoint endpoint) {
+                // Only which sessions the endpoint knows about matters here
+            }
+        };
+    }
+
+    /**
+     * @param id Session id
+     * @return an open session that writes frames straight away, and remembers them
+     */
+    private Session stubSession(String id) {
+        List<String> frames = new ArrayList<>();
+        Map<String, Object> properties = new HashMap<>();
+
+        Async remote = (Async) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Async.class },
+                (proxy, method, args) -> {
+                    if ( method.getName().equals("sendText") && args.length == 2 ) {
+                        frames.add((String) args[0]);
+                        ((SendHandler) args[1]).onResult(new SendResult());
+                    }
+                    return null;
+                });
+
+        Session session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class },
+                (proxy, method, args) -> {
+                    switch(method.getName()) {
+                        case "getId":
+                        case "toString":
+                            return id;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "isOpen":
+                            return open.contains(proxy);
+                        case "getUserProperties":
+                            return properties;
+                        case "getAsyncRemote":
+                            return remote;
+                        case "getOpenSessions":
+                            return open;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        open.add(session);
+        written.put(session, frames);
+        return session;
+    }
+
+    @Test
+    public void testSpecificPlayerOnlyGetsTheirMessages() {
+        Session s1 = stubSession("s1");
+        Session s2 = stubSession("s2");
+        Session s3 = stubSession("s3");
+
+        // user1 is connected through two sessions
+        endpoint.sessionRegistry.add("user1", s1);
+        endpoint.sessionRegistry.add("user1", s2);
+        endpoint.sessionRegistry.add("user2", s3);
+
+        endpoint.sendMessage(s3, Message.createSpecificEvent("user1", "Just for you"));
+
+        Assert.assertEquals(1, written.get(s1).size());
+        Assert.assertTrue(written.get(s1).get(0), written.get(s1).get(0).startsWith("player,user1,"));
+        Assert.assertEquals(written.get(s1), written.get(s2));
+        Assert.assertTrue("user2 should not get user1's message", written.get(s3).isEmpty());
+    }
+
+    @Test
+    public void testEveryoneGetsBroadcasts() {
+        Session s1 = stubSession("s1");
+        Session s2 = stubSession("s2");
+        Session s3 = stubSession("s3");
+        endpoint.sessionRegistry.add("user1", s1);
+
+        endpoint.sendMessage(s1, Message.createBroadcastEvent("Hello, everyone"));
+
+        for (Session s : open) {
+            Assert.assertEquals(1, written.get(s).size());
+            Assert.assertTrue(written.get(s).get(0), written.get(s).get(0).startsWith("player,*,"));
+        }
+        Assert.assertEquals(3, open.size());
+        Assert.assertEquals(written.get(s2), written.get(s3));
+    }
+
+    @Test
+    public void testUnknownPlayerFallsBackToBroadcast() {
+        Session s1 = stubSession("s1");
+        stubSession("s2");
+        stubSession("s3");
+        endpoint.sessionRegistry.add("user1", s1);
+
+        endpoint.sendMessage(s1, Message.createSpecificEvent("nobody", "Who are you?"));
+
+        for (Session s : open) {
+            Assert.assertEquals(1, written.get(s).size());
+            Assert.assertTrue(written.get(s).get(0), written.get(s).get(0).startsWith("player,nobody,"));
+        }
+    }
+
+    @Test
+    public void testLeavingClearsTheRegistry() throws Exception {
+        Session session = stubSession("s1");
+
+        endpoint.receiveMessage(session, Message.createRoomHello("roomId", "user1", "username1", 2));
+        endpoint.receiveMessage(session, Message.createRoomJoin("roomId", "user2", "username2", 2));
+        Assert.assertEquals(2, endpoint.sessionRegistry.getPlayerCount());
+        Assert.assertTrue(endpoint.sessionRegistry.getSessions("user1").contains(session));
+
+        endpoint.receiveMessage(session, Message.createRoomGoodbye("roomId", "user1", "username1"));
+        Assert.assertTrue(endpoint.sessionRegistry.getSessions("user1").isEmpty());
+
+        endpoint.receiveMessage(session, Message.createRoomPart("roomId", "user2", "username2"));
+        Assert.assertTrue(endpoint.sessionRegistry.getSessions("user2").isEmpty());
+        Assert.assertEquals(0, endpoint.sessionRegistry.getPlayerCount());
+    }
+
+    @Test
+    public void testCloseClearsTheRegistry() throws Exception {
+        Session session = stubSession("s1");
+        Session other = stubSession("s2");
+
+        endpoint.receiveMessage(session, Message.createRoomHello("roomId", "user1", "username1", 2));
+        endpoint.receiveMessage(session, Message.createRoomHello("roomId", "user2", "username2", 2));
+        endpoint.receiveMessage(other, Message.createRoomHello("roomId", "user2", "username2", 2));
+
+        open.remove(session);
+        endpoint.onClose(session, new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "bye"));
+
+        Assert.assertTrue(endpoint.sessionRegistry.getSessions("user1").isEmpty());
+        Assert.assertEquals("user2 is still connected through the other session",
+                Collections.singleton(other), endpoint.sessionRegistry.getSessions("user2"));
+        Assert.assertEquals(1, endpoint.sessionRegistry.getPlayerCount());
+    }
+
+    @Test
+    public void testHelloAfterCloseIsNotRegistered() throws Exception {
+        // Hold on to queued work until the session has closed
+        List<Runnable> queued = new ArrayList<>();
+        endpoint.mailboxes = new PlayerMailboxes(queued::add);
+        Session session = stubSession("s1");
+        Session other = stubSession("s2");
+        endpoint.sessionRegistry.add("user2", other);
+
+        endpoint.receiveMessage(session, Message.createRoomHello("roomId", "user1", "username1", 2));
+        open.remove(session);
+        endpoint.onClose(session, new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "bye"));
+        // The session is still open as far as the container says: only the close counts
+        open.add(session);
+
+        Assert.assertEquals(1, queued.size());
+        queued.remove(0).run();
+
+        Assert.assertTrue("closed session should not be registered", endpoint.sessionRegistry.getSessions("user1").isEmpty());
+        Assert.assertEquals(1, endpoint.sessionRegistry.getPlayerCount());
+
+        // Nobody knows where user1 is: their messages go to everyone still connected
+        endpoint.sendMessage(other, Message.createSpecificEvent("user1", "Still there?"));
+        Assert.assertEquals(1, written.get(other).size());
+    }
+
+    private void expectSession(Session session) {
+        new Expectations() {{
+            session.getUserProperties(); result = new HashMap<String, Object>();
+        }};
+    }
+
+    @Test
+    public void testNegotiateBinary(@Injectable Session session) {
+        expectSession(session);
+
+        endpoint.negotiate(session, Message.createRoomHello("roomId", "user1", "username1", 3));
+        Assert.assertTrue(SessionSender.get(session).isBinary());
+    }
+
+    @Test
+    public void testNegotiateText(@Injectable Session session) {
+        expectSession(session);
+
+        endpoint.negotiate(session, Message.createRoomJoin("roomId", "user1", "username1", 2));
+        Assert.assertFalse(SessionSender.get(session).isBinary());
+    }
+
+    @Test
+    public void testLaterVersionDoesNotSwitchFormat(@Injectable Session session) {
+        expectSession(session);
+
+        endpoint.negotiate(session, Message.createRoomHello("roomId", "user1", "username1", 3));
+        endpoint.negotiate(session, Message.createRoomHello("roomId", "user2", "username2", 2));
+        endpoint.negotiate(session, Message.createRoomGoodbye("roomId", "user3", "username3"));
+        Assert.assertTrue("still binary for everyone on the session", SessionSender.get(session).isBinary());
+    }
+
+    @Test
+    public void testLaterVersionDoesNotUpgrade(@Injectable Session session) {
+        expectSession(session);
+
+        endpoint.negotiate(session, Message.createRoomJoin("roomId", "user1", "username1", 2));
+        endpoint.negotiate(session, Message.createRoomHello("roomId", "user2", "username2", 3));
+        Assert.assertFalse("still text for everyone on the session", SessionSender.get(session).isBinary());
+    }
+}
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.junit.runner.RunWith;
+
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class SessionSenderTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    /** Write handlers, in the order the frames were written */
+    private final List<SendHandler> writes = new ArrayList<>();
+    private final List<String> frames = new ArrayList<>();
+    private final List<String> dropped = new ArrayList<>();
+    private final List<Integer> stackDepths = new ArrayList<>();
+
+    /** Complete writes before returning from sendText, as a container may */
+    private boolean completeImmediately = false;
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+    }
+
+    private void expectSession(Session session) {
+        Async remote = new FakeAsync();
+
+        new Expectations() {{
+            session.getUserProperties(); result = new HashMap<String, Object>();
+            session.getAsyncRemote(); result = remote;
+            session.isOpen(); result = true;
+        }};
+    }
+
+    private SendHandler trackDepth() {
+        return result -> stackDepths.add(new Throwable().getStackTrace().length);
+    }
+
+    private void assertFlatStack() {
+        int min = stackDepths.stream().mapToInt(Integer::intValue).min().getAsInt();
+        int max = stackDepths.stream().mapToInt(Integer::intValue).max().getAsInt();
+        Assert.assertTrue("stack grew from " + min + " to " + max + " frames", max - min < 5);
+    }
+
+    private SendHandler track(String frame) {
+        return result -> {
+            if ( result.getException() instanceof SessionSender.DroppedException ) {
+                dropped.add(frame);
+            }
+        };
+    }
+
+    @Test
+    public void testOneWriteAtATime(@Mocked Session session) {
+        expectSession(session);
+        SessionSender sender = SessionSender.get(session);
+
+        sender.send("a", false, track("a"));
+        sender.send("b", false, track("b"));
+        sender.send("c", false, track("c"));
+
+        Assert.assertEquals("Only the first frame should be written", 1, writes.size());
+        Assert.assertEquals(2, sender.getDepth());
+
+        writes.get(0).onResult(new SendResult());
+        writes.get(1).onResult(new SendResult());
+        writes.get(2).onResult(new SendResult());
+
+        Assert.assertEquals("[a, b, c]", frames.toString());
+        Assert.assertEquals(0, sender.getDepth());
+    }
+
+    @Test
+    public void testTextAndBinaryInOrder(@Mocked Session session) {
+        expectSession(session);
+        SessionSender sender = SessionSender.get(session);
+
+        Message chat = Message.createChatMessage("username1", "Hello");
+        sender.send("a", false, track("a"));
+        sender.send(chat.encodeBinary(), false, track("chat"));
+
+        writes.get(0).onResult(new SendResult());
+        writes.get(1).onResult(new SendResult());
+
+        Assert.assertEquals("[a, binary:" + chat.encodeBinary().length + "]", frames.toString());
+        Assert.assertEquals(0, sender.getDepth());
+    }
+
+    @Test
+    public void testSynchronousCompletionDoesNotRecurse(@Mocked Session session) {
+        expectSession(session);
+        SessionSender sender = SessionSender.get(session);
+
+        // The first write is outstanding while the rest are queued
+        sender.send("first", false, trackDepth());
+        for (int i = 0; i < SessionSender.HIGH_WATERMARK - 2; i++) {
+            sender.send("frame" + i, false, trackDepth());
+        }
+
+        completeImmediately = true;
+        writes.get(0).onResult(new SendResult());
+
+        Assert.assertEquals(SessionSender.HIGH_WATERMARK - 1, frames.size());
+        Assert.assertEquals(SessionSender.HIGH_WATERMARK - 1, stackDepths.size());
+        Assert.assertEquals(0, sender.getDepth());
+        assertFlatStack();
+    }
+
+    @Test
+    public void testClosedSessionDrainsWithoutRecursion(@Mocked Session session) {
+        Async remote = new FakeAsync();
+        new Expectations() {{
+            session.getUserProperties(); result = new HashMap<String, Object>();
+            session.getAsyncRemote(); result = remote;
+            session.isOpen(); result = true; result = false;
+        }};
+        SessionSender sender = SessionSender.get(session);
+
+        sender.send("first", false, trackDepth());
+        for (int i = 0; i < SessionSender.HIGH_WATERMARK - 2; i++) {
+            sender.send("frame" + i, false, trackDepth());
+        }
+
+        // The session closes while the first write is outstanding
+        writes.get(0).onResult(new SendResult());
+
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals(SessionSender.HIGH_WATERMARK - 1, stackDepths.size());
+        Assert.assertEquals(0, sender.getDepth());
+        assertFlatStack();
+    }
+
+    @Test
+    public void testChatIsDroppedBeforeLocation(@Mocked Session session) {
+        expectSession(session);
+        SessionSender sender = SessionSender.get(session);
+
+        // The first frame is written (and never completes), the rest are queued
+        sender.send("first", false, track("first"));
+        sender.send("location", false, track("location"));
+        for (int i = 0; i < SessionSender.HIGH_WATERMARK; i++) {
+            sender.send("chat" + i, true, track("chat" + i));
+        }
+
+        Assert.assertEquals(1, writes.size());
+        Assert.assertFalse("location should never be dropped: " + dropped, dropped.contains("location"));
+        Assert.assertEquals("oldest chat should be dropped first: " + dropped, "chat0", dropped.get(0));
+        Assert.assertEquals(SessionSender.HIGH_WATERMARK - 1, sender.getDepth());
+    }
+
+    @Test
+    public void testEvictAtHardLimit(@Mocked Session session) throws Exception {
+        expectSession(session);
+        SessionSender sender = SessionSender.get(session);
+
+        for (int i = 0; i <= SessionSender.HARD_LIMIT; i++) {
+            sender.send("location" + i, false, track("location" + i));
+        }
+
+        Assert.assertTrue("nothing should be dropped: " + dropped, dropped.isEmpty());
+        Assert.assertEquals(0, sender.getDepth());
+
+        new Verifications() {{
+            session.close((CloseReason) any); times = 1;
+        }};
+    }
+
+    @Test
+    public void testConfiguredLimits(@Mocked Session session) throws Exception {
+        OutboundLimits limits = new OutboundLimits();
+        limits.high = "8";
+        limits.low = "${env.OUTBOUND_QUEUE_LOW}";
+        limits.grace = "not a number";
+        limits.postConstruct();
+        try {
+            Assert.assertEquals(8, SessionSender.getDefaultLimits().high);
+            Assert.assertEquals("low watermark can't be above the high one", 8, SessionSender.getDefaultLimits().low);
+            Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(SessionSender.GRACE_PERIOD), SessionSender.getDefaultLimits().grace);
+
+            expectSession(session);
+            SessionSender sender = SessionSender.get(session);
+            for (int i = 0; i <= 8 * SessionSender.HARD_LIMIT_FACTOR; i++) {
+                sender.send("location" + i, false, track("location" + i));
+            }
+
+            new Verifications() {{
+                session.close((CloseReason) any); times = 1;
+            }};
+        } finally {
+            SessionSender.configure(SessionSender.HIGH_WATERMARK, SessionSender.LOW_WATERMARK, SessionSender.GRACE_PERIOD);
+        }
+    }
+
+    /**
+     * Remembers writes so the test can decide when they complete
+     */
+    private class FakeAsync implements Async {
+        @Override
+        public void sendText(String text, SendHandler handler) {
+            frames.add(text);
+            writes.add(handler);
+            if ( completeImmediately ) {
+                handler.onResult(new SendResult());
+            }
+        }
+
+        @Override
+        public long getSendTimeout() {
+            return 0;
+        }
+
+        @Override
+        public void setSendTimeout(long timeoutmillis) {
+        }
+
+        @Override
+        public Future<Void> sendText(String text) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> sendBinary(ByteBuffer data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data, SendHandler handler) {
+            frames.add("binary:" + data.remaining());
+            writes.add(handler);
+        }
+
+        @Override
+        public Future<Void> sendObject(Object data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendObject(Object data, SendHandler handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBatchingAllowed(boolean allowed) throws IOException {
+        }
+
+        @Override
+        public boolean getBatchingAllowed() {
+            return false;
+        }
+
+        @Override
+        public void flushBatch() throws IOException {
+        }
+
+        @Override
+        public void sendPing(ByteBuffer applicationData) throws IOException, IllegalArgumentException {
+        }
+
+        @Override
+        public void sendPong(ByteBuffer applicationData) throws IOException, IllegalArgumentException {
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gameontext.sample.weather.CircuitBreaker.State;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class CircuitBreakerTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private final AtomicLong now = new AtomicLong(0);
+    private CircuitBreaker breaker;
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+        // 50% failures over at least 4 calls in a 10s window of 5 buckets; open for 30s; 2 trial calls
+        breaker = new CircuitBreaker("test", 0.5, 4, 10, 5, 30, 2, TimeUnit.SECONDS, now::get);
+    }
+
+    private void advance(long seconds) {
+        now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    private void call(boolean ok) {
+        Assert.assertTrue("call should be allowed", breaker.tryAcquire());
+        if ( ok ) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    public void testOpensAtFailureRate() {
+        call(true);
+        call(false);
+        call(true);
+        Assert.assertEquals("not enough calls yet", State.closed, breaker.getState());
+
+        call(false);
+        Assert.assertEquals(State.open, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire());
+        Assert.assertEquals(30000, breaker.getRetryAfter());
+    }
+
+    @Test
+    public void testOldFailuresRollOff() {
+        call(false);
+        call(false);
+        call(false);
+        advance(11);
+
+        call(false);
+        Assert.assertEquals("earlier failures are outside the window", State.closed, breaker.getState());
+        call(true);
+        call(true);
+        call(true);
+        Assert.assertEquals(State.closed, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenCloses() {
+        for (int i = 0; i < 4; i++) {
+            call(false);
+        }
+        Assert.assertEquals(State.open, breaker.getState());
+
+        advance(30);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertEquals(State.half_open, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse("only two trial calls", breaker.tryAcquire());
+
+        breaker.onSuccess();
+        Assert.assertEquals(State.half_open, breaker.getState());
+        breaker.onSuccess();
+        Assert.assertEquals(State.closed, breaker.getState());
+
+        // A fresh window: one failure isn't enough to open again
+        call(false);
+        Assert.assertEquals(State.closed, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenFailureReopens() {
+        for (int i = 0; i < 4; i++) {
+            call(false);
+        }
+        advance(30);
+        call(false);
+
+        Assert.assertEquals(State.open, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class WeatherCacheTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private final AtomicLong now = new AtomicLong(0);
+    private final AtomicInteger upstreamCalls = new AtomicInteger(0);
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+    }
+
+    private CompletableFuture<WeatherObservation> load(String zipCode) {
+        upstreamCalls.incrementAndGet();
+        return CompletableFuture.completedFuture(new WeatherObservation(zipCode, "Sunny", 70, "N", 5));
+    }
+
+    @Test
+    public void testHitWithinTtl() throws Exception {
+        WeatherCache cache = new WeatherCache(60, TimeUnit.SECONDS, 10, now::get);
+
+        WeatherObservation o1 = cache.get("12345", this::load).get();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        WeatherObservation o2 = cache.get("12345", this::load).get();
+
+        Assert.assertSame(o1, o2);
+        Assert.assertEquals(1, upstreamCalls.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiredEntryIsRefetched() throws Exception {
+        WeatherCache cache = new WeatherCache(60, TimeUnit.SECONDS, 10, now::get);
+
+        cache.get("12345", this::load).get();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        cache.get("12345", this::load).get();
+
+        Assert.assertEquals(2, upstreamCalls.get());
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        WeatherCache cache = new WeatherCache(60, TimeUnit.SECONDS, 2, now::get);
+
+        cache.get("11111", this::load).get();
+        cache.get("22222", this::load).get();
+        cache.get("11111", this::load).get(); // 22222 is now the eldest
+        cache.get("33333", this::load).get();
+        Assert.assertEquals(2, cache.size());
+
+        cache.get("11111", this::load).get();
+        Assert.assertEquals("11111 should still be cached", 3, upstreamCalls.get());
+
+        cache.get("22222", this::load).get();
+        Assert.assertEquals("22222 should have been evicted", 4, upstreamCalls.get());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneRequest() throws Exception {
+        WeatherCache cache = new WeatherCache(60, TimeUnit.SECONDS, 10, now::get);
+        CompletableFuture<WeatherObservation> upstream = new CompletableFuture<>();
+
+        CompletableFuture<WeatherObservation> f1 = cache.get("12345", z -> { upstreamCalls.incrementAndGet(); return upstream; });
+        CompletableFuture<WeatherObservation> f2 = cache.get("12345", z -> { upstreamCalls.incrementAndGet(); return upstream; });
+        CompletableFuture<WeatherObservation> f3 = cache.get("12345", z -> { upstreamCalls.incrementAndGet(); return upstream; });
+
+        Assert.assertEquals(1, upstreamCalls.get());
+        Assert.assertEquals(2, cache.getCoalesced());
+        Assert.assertFalse(f1.isDone() || f2.isDone() || f3.isDone());
+
+        WeatherObservation o = new WeatherObservation("Somewhere", "Cloudy", 50, "S", 10);
+        upstream.complete(o);
+
+        Assert.assertSame(o, f1.get());
+        Assert.assertSame(o, f2.get());
+        Assert.assertSame(o, f3.get());
+
+        Assert.assertSame(o, cache.get("12345", this::load).get());
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testLoadCompletingDuringMissIsNotRepeated() throws Exception {
+        CompletableFuture<WeatherObservation> first = new CompletableFuture<>();
+        AtomicInteger registrations = new AtomicInteger(0);
+
+        // The first lookup completes after the second has missed, but before
+        // the second registers its own lookup
+        ConcurrentHashMap<String, CompletableFuture<WeatherObservation>> pending = new ConcurrentHashMap<String, CompletableFuture<WeatherObservation>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public CompletableFuture<WeatherObservation> putIfAbsent(String key, CompletableFuture<WeatherObservation> value) {
+                if ( registrations.incrementAndGet() == 2 ) {
+                    first.complete(new WeatherObservation(key, "Sunny", 70, "N", 5));
+                }
+                return super.putIfAbsent(key, value);
+            }
+        };
+        WeatherCache cache = new WeatherCache(60, TimeUnit.SECONDS, 10, now::get, pending);
+
+        CompletableFuture<WeatherObservation> f1 = cache.get("12345", zipCode -> {
+            upstreamCalls.incrementAndGet();
+            return first;
+        });
+        WeatherObservation o2 = cache.get("12345", this::load).get();
+
+        Assert.assertSame(f1.get(), o2);
+        Assert.assertEquals("only one upstream request", 1, upstreamCalls.get());
+        Assert.assertTrue("nothing should be left pending", pending.isEmpty());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        WeatherCache cache = new WeatherCache(60, TimeUnit.SECONDS, 10, now::get);
+        CompletableFuture<WeatherObservation> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("nope"));
+
+        CompletableFuture<WeatherObservation> f1 = cache.get("12345", z -> failed);
+        Assert.assertTrue(f1.isCompletedExceptionally());
+        Assert.assertEquals(0, cache.size());
+
+        cache.get("12345", this::load).get();
+        Assert.assertEquals(1, upstreamCalls.get());
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class WeatherClientTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private WeatherStubServer stub;
+    private WeatherClient client;
+
+    @Before
+    public void before() throws Exception {
+        System.out.println(" ===== " + testName.getMethodName());
+        stub = new WeatherStubServer();
+
+        client = new WeatherClient();
+        client.weatherUrl = stub.getUrl();
+        client.postConstruct();
+    }
+
+    @After
+    public void after() {
+        stub.close();
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        WeatherObservation observation = client.fetch("90210");
+
+        Assert.assertEquals("```Beverly Hills reports the weather is Sunny and 72°F.  Wind is WSW at 8 Mph.```",
+                observation.getReport());
+        Assert.assertEquals("/api/weather/v1/location/90210%3A4%3AUS/observations.json", stub.getLastPath());
+        Assert.assertEquals(WeatherClient.AUTHORIZATION, stub.getLastAuthorization());
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            client.fetch("90210");
+        }
+        Assert.assertEquals(10, stub.getRequests());
+        Assert.assertEquals("requests should share one kept-alive connection", 1, stub.getConnections());
+    }
+
+    @Test
+    public void testConnectionIsReusedAfterError() throws Exception {
+        stub.setStatus(401);
+        try {
+            client.fetch("90210");
+            Assert.fail("Expected WeatherException");
+        } catch (WeatherException e) {
+            Assert.assertEquals(401, e.getResponseCode());
+        }
+
+        stub.setStatus(200);
+        client.fetch("90210");
+        Assert.assertEquals(1, stub.getConnections());
+    }
+
+    @Test
+    public void testLargeLeftoverIsNotDrained() throws Exception {
+        stub.setPadding(64 * 1024, 0);
+        client.fetch("90210");
+        client.fetch("90210");
+
+        Assert.assertEquals(2, stub.getRequests());
+        Assert.assertEquals("connection should be dropped rather than read to the end", 2, stub.getConnections());
+    }
+
+    @Test
+    public void testSlowLeftoverDoesNotHoldTheThread() throws Exception {
+        stub.setPadding(16, 2000);
+        long start = System.nanoTime();
+        client.fetch("90210");
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue("fetch waited " + elapsed + "ms for the rest of the response", elapsed < 1000);
+    }
+
+    @Test
+    public void testLookupIsCached() throws Exception {
+        WeatherObservation first = client.lookup("90210").get(5, TimeUnit.SECONDS);
+        WeatherObservation second = client.lookup("90210").get(5, TimeUnit.SECONDS);
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, stub.getRequests());
+    }
+
+    @Test
+    public void testBreakerFailsFast() throws Exception {
+        stub.setStatus(503);
+        for (int i = 0; i < WeatherClient.BREAKER_MINIMUM_CALLS; i++) {
+            try {
+                client.lookup("9021" + i).get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected WeatherException");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof WeatherException);
+            }
+        }
+        Assert.assertEquals(CircuitBreaker.State.open, client.getBreaker().getState());
+
+        CompletableFuture<WeatherObservation> lookup = client.lookup("90210");
+        Assert.assertTrue("lookup should fail straight away", lookup.isCompletedExceptionally());
+        Assert.assertEquals(WeatherClient.BREAKER_MINIMUM_CALLS, stub.getRequests());
+    }
+}
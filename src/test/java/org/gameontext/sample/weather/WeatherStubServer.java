@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2016 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.sample.weather;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the Weather Company observations API, for tests and
+ * benchmarks. Every zip code gets the same observation, or the configured
+ * error status, after an optional delay.
+ */
+public class WeatherStubServer implements AutoCloseable {
+
+    static final String OBSERVATION = "{\"metadata\":{\"language\":\"en-US\",\"status_code\":200},"
+            + "\"observation\":{\"obs_name\":\"Beverly Hills\",\"wx_phrase\":\"Sunny\",\"temp\":72,"
+            + "\"wdir_cardinal\":\"WSW\",\"wspd\":8,\"pressure\":30.01,\"rh\":40}}";
+
+    static {
+        // Otherwise the body waits for the client to acknowledge the headers
+        // (Nagle vs. delayed ACK), which adds ~40ms to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+
+    private final AtomicInteger requests = new AtomicInteger(0);
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    private volatile int status = 200;
+    private volatile long delay = 0;
+    private volatile int padding = 0;
+    private volatile long paddingDelay = 0;
+    private volatile String lastAuthorization;
+    private volatile String lastPath;
+
+    public WeatherStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "weather-stub");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+    }
+
+    /**
+     * @return base URL to give the weather client
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/api/weather/v1";
+    }
+
+    /** @param status HTTP status to answer with */
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    /** @param delay milliseconds to wait before answering */
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * @param padding bytes of whitespace to send after the observation
+     * @param paddingDelay milliseconds to wait between the observation and the padding
+     */
+    public void setPadding(int padding, long paddingDelay) {
+        this.padding = padding;
+        this.paddingDelay = paddingDelay;
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of different connections requests arrived on
+     */
+    public int getConnections() {
+        return clientPorts.size();
+    }
+
+    public String getLastAuthorization() {
+        return lastAuthorization;
+    }
+
+    public String getLastPath() {
+        return lastPath;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+        lastPath = exchange.getRequestURI().getRawPath();
+
+        sleep(delay);
+
+        byte[] body = (status == 200 ? OBSERVATION : "{\"errors\":[{\"error\":{\"code\":\"EAE:OUT\"}}]}")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length + padding);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+            if ( padding > 0 ) {
+                out.flush();
+                sleep(paddingDelay);
+                byte[] spaces = new byte[padding];
+                Arrays.fill(spaces, (byte) ' ');
+                out.write(spaces);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        if ( millis > 0 ) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}